@@ -1,3 +1,12 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
 public class CommandPatternDemo {
     public static void main(String[] args) {
         // Создаем устройства (получатели команд)
@@ -46,6 +55,36 @@ public class CommandPatternDemo {
         
         System.out.println("\nВыключаем вечерний режим:");
         remote.offButtonPressed(3);
+        
+        System.out.println("\n--- Многоуровневая отмена и повтор ---");
+        RemoteControl shortHistory = new RemoteControl(2);
+        shortHistory.setCommand(0, lightOn, lightOff);
+        shortHistory.setCommand(1, tvOn, tvOff);
+        shortHistory.onButtonPressed(0);
+        shortHistory.onButtonPressed(1);
+        shortHistory.offButtonPressed(1);
+        shortHistory.undo();  // Включаем TV обратно
+        shortHistory.undo();  // Выключаем TV
+        shortHistory.undo();  // Глубина 2 - включение света уже вытеснено
+        shortHistory.redo();  // Снова включаем TV
+        shortHistory.redo();  // Снова выключаем TV
+        shortHistory.redo();  // Повторять больше нечего
+        
+        System.out.println("\n--- Асинхронное выполнение ---");
+        try (AsyncCommandExecutor executor = new AsyncCommandExecutor(8)) {
+            RemoteControl asyncRemote = new RemoteControl(16, executor);
+            asyncRemote.setCommand(0, lightOn, lightOff);
+            asyncRemote.setCommand(1, stereoOn, stereoOff);
+            // Команды одного устройства выполняются по порядку, разных - параллельно
+            CompletableFuture<Void> all = CompletableFuture.allOf(
+                    asyncRemote.onButtonPressed(0),
+                    asyncRemote.onButtonPressed(1),
+                    asyncRemote.offButtonPressed(0),
+                    asyncRemote.undo());
+            System.out.println("Команды поставлены в очередь: " + executor.queueDepth());
+            all.join();
+            System.out.println(executor.metrics());
+        }
     }
 }
 
@@ -53,6 +92,12 @@ public class CommandPatternDemo {
 interface Command {
     void execute();
     void undo();
+    
+    // Устройство, которым управляет команда; команды одного устройства
+    // асинхронный исполнитель выполняет строго по порядку
+    default Object receiver() {
+        return null;
+    }
 }
 
 // 2. Конкретные команды
@@ -74,6 +119,11 @@ class LightOnCommand implements Command {
     public void undo() {
         light.off();
     }
+    
+    @Override
+    public Object receiver() {
+        return light;
+    }
 }
 
 // Команда выключения света
@@ -93,6 +143,11 @@ class LightOffCommand implements Command {
     public void undo() {
         light.on();
     }
+    
+    @Override
+    public Object receiver() {
+        return light;
+    }
 }
 
 // Команда включения стерео
@@ -113,6 +168,11 @@ class StereoOnCommand implements Command {
     public void undo() {
         stereo.off();
     }
+    
+    @Override
+    public Object receiver() {
+        return stereo;
+    }
 }
 
 // Команда выключения стерео
@@ -133,6 +193,11 @@ class StereoOffCommand implements Command {
         stereo.on();
         stereo.setVolume(15);
     }
+    
+    @Override
+    public Object receiver() {
+        return stereo;
+    }
 }
 
 // Команда включения TV
@@ -153,6 +218,11 @@ class TVOnCommand implements Command {
     public void undo() {
         tv.off();
     }
+    
+    @Override
+    public Object receiver() {
+        return tv;
+    }
 }
 
 // Команда выключения TV
@@ -173,6 +243,11 @@ class TVOffCommand implements Command {
         tv.on();
         tv.setChannel(5);
     }
+    
+    @Override
+    public Object receiver() {
+        return tv;
+    }
 }
 
 // Пустая команда (null-object pattern)
@@ -211,6 +286,11 @@ class MacroCommand implements Command {
             command.execute();
         }
     }
+    
+    // Шаги макрокоманды: асинхронный исполнитель ставит каждый в очередь его устройства
+    public Command[] steps(boolean undo) {
+        return undo ? offCommands : onCommands;
+    }
 }
 
 // 3. Получатели команд (устройства)
@@ -291,21 +371,43 @@ class TV {
 
 // 4. Инициатор (пульт управления)
 class RemoteControl {
+    private static final int DEFAULT_HISTORY_DEPTH = 16;
+    
     private final Command[] onCommands;
     private final Command[] offCommands;
-    private Command undoCommand;
+    private final Command noCommand;
+    // История в кольцевом буфере: перед top лежат undoable команд для отмены,
+    // начиная с top - redoable отмененных команд для повтора. Новая команда
+    // затирает самую старую, поэтому память не растет.
+    private final Command[] history;
+    private int top;
+    private int undoable;
+    private int redoable;
+    private final AsyncCommandExecutor executor;  // null - команды выполняются сразу
     
     public RemoteControl() {
+        this(DEFAULT_HISTORY_DEPTH);
+    }
+    
+    public RemoteControl(int historyDepth) {
+        this(historyDepth, null);
+    }
+    
+    public RemoteControl(int historyDepth, AsyncCommandExecutor executor) {
+        if (historyDepth <= 0) {
+            throw new IllegalArgumentException("historyDepth must be positive");
+        }
         onCommands = new Command[7];
         offCommands = new Command[7];
+        history = new Command[historyDepth];
+        this.executor = executor;
         
         // Инициализация пустыми командами
-        Command noCommand = new NoCommand();
+        noCommand = new NoCommand();
         for (int i = 0; i < 7; i++) {
             onCommands[i] = noCommand;
             offCommands[i] = noCommand;
         }
-        undoCommand = noCommand;
     }
     
     public void setCommand(int slot, Command onCommand, Command offCommand) {
@@ -313,18 +415,192 @@ class RemoteControl {
         offCommands[slot] = offCommand;
     }
     
-    public void onButtonPressed(int slot) {
-        onCommands[slot].execute();
-        undoCommand = onCommands[slot];
+    // В историю попадает только команда, которая выполнилась (или принята исполнителем)
+    public CompletableFuture<Void> onButtonPressed(int slot) {
+        CompletableFuture<Void> result = run(onCommands[slot], false);
+        push(onCommands[slot]);
+        return result;
     }
     
-    public void offButtonPressed(int slot) {
-        offCommands[slot].execute();
-        undoCommand = offCommands[slot];
+    public CompletableFuture<Void> offButtonPressed(int slot) {
+        CompletableFuture<Void> result = run(offCommands[slot], false);
+        push(offCommands[slot]);
+        return result;
     }
     
-    public void undo() {
+    // Без исполнителя команда выполняется в потоке вызывающего
+    private CompletableFuture<Void> run(Command command, boolean undo) {
+        if (executor != null) {
+            return undo ? executor.submitUndo(command) : executor.submit(command);
+        }
+        if (undo) {
+            command.undo();
+        } else {
+            command.execute();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+    
+    // Новая команда обрывает ветку повтора
+    private void push(Command command) {
+        history[top] = command;
+        top = (top + 1) % history.length;
+        undoable = Math.min(undoable + 1, history.length);
+        redoable = 0;
+    }
+    
+    public CompletableFuture<Void> undo() {
         System.out.println("--- Отмена ---");
-        undoCommand.undo();
+        if (undoable == 0) {
+            noCommand.undo();
+            return CompletableFuture.completedFuture(null);
+        }
+        int previous = (top - 1 + history.length) % history.length;
+        CompletableFuture<Void> result = run(history[previous], true);
+        top = previous;
+        undoable--;
+        redoable++;
+        return result;
+    }
+    
+    public CompletableFuture<Void> redo() {
+        System.out.println("--- Повтор ---");
+        if (redoable == 0) {
+            System.out.println("Повтор недоступен");
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> result = run(history[top], false);
+        top = (top + 1) % history.length;
+        redoable--;
+        undoable++;
+        return result;
+    }
+}
+
+// 5. Асинхронный исполнитель команд
+
+// Команды раскладываются по полосам по устройству-получателю. У каждой полосы
+// своя очередь, которую разбирает не более одного виртуального потока за раз:
+// команды одного устройства идут строго по порядку, разные устройства
+// выполняются параллельно. Команды без получателя распределяются по себе.
+// Макрокоманда раскладывается на шаги, и каждый шаг встает в очередь своего
+// устройства: порядок относительно одиночных команд тех же устройств
+// сохраняется, но шаги на разных устройствах могут идти параллельно.
+class AsyncCommandExecutor implements AutoCloseable {
+    private final CommandStripe[] stripes;
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean closed;
+    
+    public AsyncCommandExecutor(int stripeCount) {
+        int size = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        stripes = new CommandStripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new CommandStripe();
+        }
+    }
+    
+    public CompletableFuture<Void> submit(Command command) {
+        return enqueue(command, false);
+    }
+    
+    public CompletableFuture<Void> submitUndo(Command command) {
+        return enqueue(command, true);
+    }
+    
+    private CompletableFuture<Void> enqueue(Command command, boolean undo) {
+        if (closed) {
+            throw new IllegalStateException("Executor is closed");
+        }
+        if (command instanceof MacroCommand macro) {
+            Command[] steps = macro.steps(undo);
+            CompletableFuture<?>[] parts = new CompletableFuture<?>[steps.length];
+            for (int i = 0; i < steps.length; i++) {
+                parts[i] = enqueue(steps[i], false);
+            }
+            return CompletableFuture.allOf(parts);
+        }
+        Object receiver = command.receiver() != null ? command.receiver() : command;
+        int h = System.identityHashCode(receiver);
+        CommandStripe stripe = stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        stripe.enqueue(() -> {
+            try {
+                if (undo) {
+                    command.undo();
+                } else {
+                    command.execute();
+                }
+                completed.increment();
+                future.complete(null);
+            } catch (Throwable e) {
+                failed.increment();
+                future.completeExceptionally(e);
+            }
+        }, future);
+        return future;
+    }
+    
+    // Сколько команд ждут выполнения во всех полосах
+    public int queueDepth() {
+        int depth = 0;
+        for (CommandStripe stripe : stripes) {
+            depth += stripe.depth.get();
+        }
+        return depth;
+    }
+    
+    public String metrics() {
+        int maxDepth = 0;
+        for (CommandStripe stripe : stripes) {
+            maxDepth = Math.max(maxDepth, stripe.maxDepth);
+        }
+        return "Выполнено: " + completed.sum() + ", с ошибкой: " + failed.sum()
+                + ", в очереди: " + queueDepth() + ", макс. глубина полосы: " + maxDepth;
+    }
+    
+    // Дожидается выполнения поставленных команд; новые не принимаются
+    @Override
+    public void close() {
+        closed = true;
+        threads.close();
+    }
+    
+    private final class CommandStripe {
+        private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final AtomicInteger depth = new AtomicInteger();
+        private volatile int maxDepth;
+        
+        void enqueue(Runnable task, CompletableFuture<Void> future) {
+            queue.add(task);
+            int d = depth.incrementAndGet();
+            if (d > maxDepth) maxDepth = d;
+            if (running.compareAndSet(false, true)) {
+                try {
+                    threads.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    running.set(false);
+                    if (queue.remove(task)) {
+                        depth.decrementAndGet();
+                        future.completeExceptionally(e);
+                    }
+                }
+            }
+        }
+        
+        // Поток разбирает очередь, пока она не опустеет; повторная проверка
+        // после сброса флага не дает потерять команду, добавленную в этот момент
+        private void drain() {
+            do {
+                Runnable task;
+                while ((task = queue.poll()) != null) {
+                    depth.decrementAndGet();
+                    task.run();
+                }
+                running.set(false);
+            } while (!queue.isEmpty() && running.compareAndSet(false, true));
+        }
     }
 }
\ No newline at end of file
@@ -1,3 +1,29 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 public class Main {
     public static void main(String[] args) {
         ChatMediator mediator = new ChatRoom();
@@ -12,6 +38,113 @@ public class Main {
 
         alice.send("Hi everyone!");
         bob.send("Hey Alice!");
+
+        // Личное сообщение и сообщение группе
+        System.out.println("\n=== Личные и групповые сообщения ===");
+        mediator.joinGroup("backend", alice);
+        mediator.joinGroup("backend", charlie);
+        bob.sendDirect("Charlie", "Привет, Charlie!");
+        alice.sendToGroup("backend", "Созвон в 15:00");
+        System.out.println("Dave в сети: " + mediator.isOnline("Dave"));
+
+        // Комната на 100 000 участников: рассылка выполняется потоками шардов
+        System.out.println("\n=== Шардированная комната ===");
+        LongAdder delivered = new LongAdder();
+        try (ChatShardPool pool = new ChatShardPool(Runtime.getRuntime().availableProcessors())) {
+            ShardedChatRoom room = new ShardedChatRoom(pool);
+            for (int i = 0; i < 100_000; i++) {
+                room.addUser(new User("member-" + i, room) {
+                    public void send(String message) {
+                        mediator.sendMessage(message, this);
+                    }
+
+                    public void receive(String message) {
+                        delivered.increment();
+                    }
+                });
+            }
+            pool.awaitIdle();
+            User announcer = new ConcreteUser("Announcer", room);
+            room.addUser(announcer);
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                announcer.send("Объявление " + i);
+            }
+            long sendMicros = (System.nanoTime() - start) / 1_000;
+            pool.awaitIdle();
+            long totalMicros = Math.max(1, (System.nanoTime() - start) / 1_000);
+            System.out.println("Отправка заняла " + sendMicros + " мкс, доставлено " + delivered.sum()
+                    + " сообщений за " + totalMicros / 1_000 + " мс на " + pool.shardCount() + " шардах");
+        }
+
+        // У каждого участника свой почтовый ящик; отключают того, кто отстает дольше 50 мс
+        System.out.println("\n=== Почтовые ящики участников ===");
+        try (MailboxChatRoom mailboxRoom = new MailboxChatRoom(4, MailboxOverflowPolicy.DISCONNECT)) {
+            User dave = new ConcreteUser("Dave", mailboxRoom);
+            User slowpoke = new User("Slowpoke", mailboxRoom) {
+                public void send(String message) {
+                    mediator.sendMessage(message, this);
+                }
+
+                public void receive(String message) {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    System.out.println(name + " наконец получил: " + message);
+                }
+            };
+            User erin = new ConcreteUser("Erin", mailboxRoom);
+            mailboxRoom.addUser(dave);
+            mailboxRoom.addUser(slowpoke);
+            mailboxRoom.addUser(erin);
+            for (int i = 1; i <= 6; i++) {
+                dave.send("Сообщение " + i);
+            }
+            mailboxRoom.awaitEmpty();
+            System.out.print(mailboxRoom.metrics());
+        }
+
+        // История комнаты: опоздавший участник дочитывает последние сообщения
+        System.out.println("\n=== История сообщений ===");
+        try {
+            Path dir = Files.createTempDirectory("chat-history");
+            try (SegmentedMessageLog log = new SegmentedMessageLog(dir, 4096, 16384)) {
+                HistoryChatRoom historyRoom = new HistoryChatRoom(new ChatRoom(), log);
+                User bot = new ConcreteUser("Bot", historyRoom) {
+                    public void send(String message) {
+                        mediator.sendMessage(message, this);
+                    }
+                };
+                historyRoom.addUser(bot);
+                for (int i = 0; i < 1000; i++) {
+                    bot.send("Новость " + i);
+                }
+                System.out.println("Хранятся сообщения " + log.startOffset() + ".." + (log.endOffset() - 1)
+                        + " в " + log.segmentCount() + " сегментах");
+                historyRoom.joinWithHistory(new ConcreteUser("Zoe", historyRoom), log.endOffset() - 3);
+                bot.send("Добро пожаловать, Zoe!");
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Сообщение кодируется один раз и уходит всем получателям через каналы
+        System.out.println("\n=== Рассылка через транспорт ===");
+        try (TransportChatRoom transportRoom = new TransportChatRoom(new InProcessTransport())) {
+            User frank = new ConcreteUser("Frank", transportRoom);
+            transportRoom.addUser(frank);
+            transportRoom.addUser(new ConcreteUser("Grace", transportRoom));
+            transportRoom.addUser(new ConcreteUser("Heidi", transportRoom));
+            frank.send("Всем по одной копии");
+        }
     }
 }
 
@@ -19,13 +152,88 @@ public class Main {
 interface ChatMediator {
     void sendMessage(String message, User sender);
     void addUser(User user);
+
+    // Личное сообщение участнику по имени
+    void sendDirect(String message, User sender, String recipient);
+
+    // Сообщение участникам группы, кроме отправителя
+    void sendToGroup(String message, User sender, String group);
+
+    void joinGroup(String group, User user);
+
+    boolean isOnline(String name);
+}
+
+// Справочник участников: индекс имя -> плотный номер участника и группы
+// как BitSet по этим номерам. Поиск по имени - одна проба в хэш-таблице,
+// рассылка группе обходит только установленные биты. Не потокобезопасен,
+// конкурентные посредники обращаются к нему под своей блокировкой.
+class MemberDirectory<M> {
+    private static final BitSet EMPTY = new BitSet();
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<String, BitSet> groups = new HashMap<>();
+    private Object[] members = new Object[16];
+    private int nextId;
+
+    // Возвращает номер нового участника
+    public int add(String name, M member) {
+        if (ids.containsKey(name)) {
+            throw new IllegalArgumentException("User already exists: " + name);
+        }
+        if (nextId == members.length) {
+            members = Arrays.copyOf(members, nextId * 2);
+        }
+        members[nextId] = member;
+        ids.put(name, nextId);
+        return nextId++;
+    }
+
+    public void remove(String name) {
+        Integer id = ids.remove(name);
+        if (id == null) return;
+        members[id] = null;
+        for (BitSet group : groups.values()) {
+            group.clear(id);
+        }
+    }
+
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public M find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? null : member(id);
+    }
+
+    @SuppressWarnings("unchecked")
+    public M member(int id) {
+        return (M) members[id];
+    }
+
+    public void joinGroup(String group, String name) {
+        int id = idOf(name);
+        if (id < 0) {
+            throw new IllegalArgumentException("User not found");
+        }
+        groups.computeIfAbsent(group, g -> new BitSet()).set(id);
+    }
+
+    // Участники группы; возвращаемый набор изменять нельзя
+    public BitSet group(String group) {
+        return groups.getOrDefault(group, EMPTY);
+    }
 }
 
 // Конкретный посредник
 class ChatRoom implements ChatMediator {
     private java.util.List<User> users = new java.util.ArrayList<>();
+    private final MemberDirectory<User> directory = new MemberDirectory<>();
 
     public void addUser(User user) {
+        directory.add(user.name, user);
         users.add(user);
     }
 
@@ -36,6 +244,1122 @@ class ChatRoom implements ChatMediator {
             }
         }
     }
+
+    public void sendDirect(String message, User sender, String recipient) {
+        User u = directory.find(recipient);
+        if (u == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        u.receive(message);
+    }
+
+    public void sendToGroup(String message, User sender, String group) {
+        BitSet members = directory.group(group);
+        for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1)) {
+            User u = directory.member(id);
+            if (u != sender) {
+                u.receive(message);
+            }
+        }
+    }
+
+    public void joinGroup(String group, User user) {
+        directory.joinGroup(group, user.name);
+    }
+
+    public boolean isOnline(String name) {
+        return directory.idOf(name) >= 0;
+    }
+}
+
+// Пул потоков-шардов, общий для многих комнат. У каждого шарда своя
+// очередь задач и свой поток; участники комнаты распределены по шардам,
+// и списком участников шарда владеет только его поток, поэтому
+// при рассылке не нужны блокировки. Поток забирает задачи пачкой.
+class ChatShardPool implements AutoCloseable {
+    private static final int BATCH = 256;
+    private static final Runnable STOP = () -> { };
+
+    private final List<LinkedBlockingQueue<Runnable>> queues = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final LongAdder failedTasks = new LongAdder();
+
+    public ChatShardPool(int shards) {
+        for (int i = 0; i < shards; i++) {
+            LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+            Thread worker = new Thread(() -> drain(queue), "chat-shard-" + i);
+            worker.setDaemon(true);
+            queues.add(queue);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    public int shardCount() {
+        return queues.size();
+    }
+
+    void submit(int shard, Runnable task) {
+        queues.get(shard).add(task);
+    }
+
+    private void drain(LinkedBlockingQueue<Runnable> queue) {
+        List<Runnable> batch = new ArrayList<>(BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH - 1);
+                for (Runnable task : batch) {
+                    if (task == STOP) return;
+                    // Исключение в задаче не должно останавливать поток шарда
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        failedTasks.increment();
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long failedTasks() {
+        return failedTasks.sum();
+    }
+
+    // Ждет, пока шарды выполнят все поставленные до вызова задачи
+    public void awaitIdle() {
+        CountDownLatch done = new CountDownLatch(queues.size());
+        for (LinkedBlockingQueue<Runnable> queue : queues) {
+            queue.add(done::countDown);
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Доставляет уже поставленные сообщения и останавливает потоки
+    @Override
+    public void close() {
+        for (LinkedBlockingQueue<Runnable> queue : queues) {
+            queue.add(STOP);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
+
+// Комната с участниками, распределенными по шардам пула. Сообщение ставится
+// в очередь один раз на шард, отправитель сразу возвращается, а каждый шард
+// рассылает его своей части участников.
+class ShardedChatRoom implements ChatMediator {
+    private final ChatShardPool pool;
+    private final List<List<User>> members = new ArrayList<>();  // список шарда меняет только его поток
+    private final MemberDirectory<User> directory = new MemberDirectory<>();  // под собственной блокировкой
+    private final LongAdder failedDeliveries = new LongAdder();
+
+    public ShardedChatRoom(ChatShardPool pool) {
+        this.pool = pool;
+        for (int i = 0; i < pool.shardCount(); i++) {
+            members.add(new ArrayList<>());
+        }
+    }
+
+    // Участник попадает в шард по своему номеру в справочнике
+    public void addUser(User user) {
+        int id;
+        synchronized (directory) {
+            id = directory.add(user.name, user);
+        }
+        int shard = id % pool.shardCount();
+        List<User> shardMembers = members.get(shard);
+        pool.submit(shard, () -> shardMembers.add(user));
+    }
+
+    public void sendMessage(String message, User sender) {
+        for (int shard = 0; shard < pool.shardCount(); shard++) {
+            List<User> shardMembers = members.get(shard);
+            pool.submit(shard, () -> deliver(shardMembers, message, sender));
+        }
+    }
+
+    // Личное сообщение доставляет поток шарда получателя
+    public void sendDirect(String message, User sender, String recipient) {
+        User u;
+        int id;
+        synchronized (directory) {
+            id = directory.idOf(recipient);
+            u = id < 0 ? null : directory.member(id);
+        }
+        if (u == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        pool.submit(id % pool.shardCount(), () -> receive(u, message));
+    }
+
+    // Получатели раскладываются по шардам под блокировкой, каждый шард получает только свою часть
+    public void sendToGroup(String message, User sender, String group) {
+        int shards = pool.shardCount();
+        List<List<User>> slices = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            slices.add(null);
+        }
+        synchronized (directory) {
+            BitSet groupMembers = directory.group(group);
+            for (int id = groupMembers.nextSetBit(0); id >= 0; id = groupMembers.nextSetBit(id + 1)) {
+                User u = directory.member(id);
+                if (u == sender) continue;
+                List<User> slice = slices.get(id % shards);
+                if (slice == null) {
+                    slice = new ArrayList<>();
+                    slices.set(id % shards, slice);
+                }
+                slice.add(u);
+            }
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            List<User> slice = slices.get(shard);
+            if (slice != null) {
+                pool.submit(shard, () -> deliver(slice, message, sender));
+            }
+        }
+    }
+
+    public void joinGroup(String group, User user) {
+        synchronized (directory) {
+            directory.joinGroup(group, user.name);
+        }
+    }
+
+    public boolean isOnline(String name) {
+        synchronized (directory) {
+            return directory.idOf(name) >= 0;
+        }
+    }
+
+    // Сообщения, на которых участники бросили исключение
+    public long failedDeliveries() {
+        return failedDeliveries.sum();
+    }
+
+    private void deliver(List<User> shardMembers, String message, User sender) {
+        for (int i = 0, n = shardMembers.size(); i < n; i++) {
+            User u = shardMembers.get(i);
+            if (u != sender) {
+                receive(u, message);
+            }
+        }
+    }
+
+    // Ошибка одного участника не прерывает рассылку остальным
+    private void receive(User u, String message) {
+        try {
+            u.receive(message);
+        } catch (RuntimeException e) {
+            failedDeliveries.increment();
+        }
+    }
+}
+
+// Что делать, когда почтовый ящик получателя переполнен
+enum MailboxOverflowPolicy {
+    BLOCK,      // отправитель ждет, пока в ящике освободится место
+    DROP,       // новое сообщение выбрасывается
+    DISCONNECT  // получатель отключается, если ящик полон дольше допустимого отставания
+}
+
+// Ограниченный почтовый ящик участника: писать могут многие потоки,
+// разбирает один виртуальный поток, вызывающий receive. Сообщения лежат
+// в заранее выделенном кольцевом буфере вместе со временем постановки.
+class Mailbox implements AutoCloseable {
+    private final User owner;
+    private final MailboxOverflowPolicy policy;
+    private final long maxLagNanos;  // для DISCONNECT: сколько может ждать самое старое сообщение
+    private final String[] messages;
+    private final long[] enqueuedAt;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition changed = lock.newCondition();
+    private int head;
+    private int size;
+    private boolean busy;  // поток доставки выполняет receive
+    private boolean closed;
+    private boolean disconnected;
+    private int maxDepth;
+    private long delivered;
+    private long dropped;
+    private long failed;  // receive бросил исключение
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+    private final Thread consumer;
+
+    public Mailbox(User owner, int capacity, MailboxOverflowPolicy policy, long maxLagMillis) {
+        this.owner = owner;
+        this.policy = policy;
+        this.maxLagNanos = maxLagMillis * 1_000_000L;
+        this.messages = new String[capacity];
+        this.enqueuedAt = new long[capacity];
+        consumer = Thread.ofVirtual().name("mailbox-" + owner.name).start(this::drain);
+    }
+
+    public User owner() {
+        return owner;
+    }
+
+    // Возвращает false, если получатель отключен и больше не принимает сообщения
+    public boolean offer(String message) {
+        lock.lock();
+        try {
+            if (disconnected || closed) return false;
+            if (size == messages.length) {
+                switch (policy) {
+                    case BLOCK -> {
+                        while (size == messages.length && !closed) {
+                            changed.awaitUninterruptibly();
+                        }
+                        if (closed) return false;
+                    }
+                    case DROP -> {
+                        dropped++;
+                        return true;
+                    }
+                    case DISCONNECT -> {
+                        // Кратковременное переполнение (например, поток доставки еще
+                        // не запустился) пережидаем; отключаем, только если самое
+                        // старое сообщение ждет дольше maxLag
+                        long remaining;
+                        while (size == messages.length && !closed
+                                && (remaining = maxLagNanos - (System.nanoTime() - enqueuedAt[head])) > 0) {
+                            try {
+                                changed.awaitNanos(remaining);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return false;
+                            }
+                        }
+                        if (closed) return false;
+                        if (size == messages.length) {
+                            disconnected = true;
+                            dropped += size + 1;
+                            Arrays.fill(messages, null);
+                            size = 0;
+                            notEmpty.signal();
+                            changed.signalAll();
+                            return false;
+                        }
+                    }
+                }
+            }
+            int tail = (head + size) % messages.length;
+            messages[tail] = message;
+            enqueuedAt[tail] = System.nanoTime();
+            size++;
+            maxDepth = Math.max(maxDepth, size);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            String message;
+            long latency;
+            lock.lock();
+            try {
+                busy = false;
+                changed.signalAll();
+                while (size == 0 && !closed && !disconnected) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (size == 0) return;
+                message = messages[head];
+                latency = System.nanoTime() - enqueuedAt[head];
+                messages[head] = null;
+                head = (head + 1) % messages.length;
+                size--;
+                busy = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            // Исключение получателя не должно останавливать поток доставки;
+            // доставленным считается только сообщение, на котором receive завершился
+            boolean ok;
+            try {
+                owner.receive(message);
+                ok = true;
+            } catch (RuntimeException e) {
+                ok = false;
+            }
+            lock.lock();
+            try {
+                if (ok) {
+                    delivered++;
+                    totalLatencyNanos += latency;
+                    maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                } else {
+                    failed++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isDisconnected() {
+        lock.lock();
+        try {
+            return disconnected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ждет, пока ящик опустеет и текущее сообщение будет обработано
+    public void awaitEmpty() {
+        lock.lock();
+        try {
+            while ((size > 0 || busy) && !closed) {
+                changed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String metrics() {
+        lock.lock();
+        try {
+            return owner.name + ": глубина " + size + " (макс. " + maxDepth + "), доставлено " + delivered
+                    + ", потеряно " + dropped + ", ошибок " + failed
+                    + ", задержка ср. " + (delivered == 0 ? 0 : totalLatencyNanos / delivered / 1_000)
+                    + " мкс, макс. " + maxLatencyNanos / 1_000 + " мкс"
+                    + (disconnected ? ", отключен" : "");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Доставляет оставшиеся сообщения и останавливает поток
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Посредник с почтовыми ящиками: отправка только раскладывает сообщение
+// по ящикам, а медленный получатель задерживает только свой ящик
+class MailboxChatRoom implements ChatMediator, AutoCloseable {
+    private static final long DEFAULT_MAX_LAG_MILLIS = 50;
+
+    private final int capacity;
+    private final MailboxOverflowPolicy policy;
+    private final long maxLagMillis;
+    private final List<Mailbox> mailboxes = new CopyOnWriteArrayList<>();
+    private final List<Mailbox> disconnected = new CopyOnWriteArrayList<>();
+    private final MemberDirectory<Mailbox> directory = new MemberDirectory<>();  // под собственной блокировкой
+
+    public MailboxChatRoom(int capacity, MailboxOverflowPolicy policy) {
+        this(capacity, policy, DEFAULT_MAX_LAG_MILLIS);
+    }
+
+    public MailboxChatRoom(int capacity, MailboxOverflowPolicy policy, long maxLagMillis) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    public void addUser(User user) {
+        Mailbox mailbox = new Mailbox(user, capacity, policy, maxLagMillis);
+        synchronized (directory) {
+            directory.add(user.name, mailbox);
+        }
+        mailboxes.add(mailbox);
+    }
+
+    public void sendMessage(String message, User sender) {
+        for (Mailbox mailbox : mailboxes) {
+            if (mailbox.owner() != sender) {
+                deliver(mailbox, message);
+            }
+        }
+    }
+
+    public void sendDirect(String message, User sender, String recipient) {
+        Mailbox mailbox;
+        synchronized (directory) {
+            mailbox = directory.find(recipient);
+        }
+        if (mailbox == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        deliver(mailbox, message);
+    }
+
+    public void sendToGroup(String message, User sender, String group) {
+        List<Mailbox> recipients = new ArrayList<>();
+        synchronized (directory) {
+            BitSet members = directory.group(group);
+            for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1)) {
+                Mailbox mailbox = directory.member(id);
+                if (mailbox.owner() != sender) {
+                    recipients.add(mailbox);
+                }
+            }
+        }
+        for (Mailbox mailbox : recipients) {
+            deliver(mailbox, message);
+        }
+    }
+
+    public void joinGroup(String group, User user) {
+        synchronized (directory) {
+            directory.joinGroup(group, user.name);
+        }
+    }
+
+    public boolean isOnline(String name) {
+        synchronized (directory) {
+            return directory.idOf(name) >= 0;
+        }
+    }
+
+    private void deliver(Mailbox mailbox, String message) {
+        if (!mailbox.offer(message) && mailbox.isDisconnected()) {
+            // Отключенный участник удаляется из комнаты; его поток завершится сам
+            if (mailboxes.remove(mailbox)) {
+                synchronized (directory) {
+                    directory.remove(mailbox.owner().name);
+                }
+                disconnected.add(mailbox);
+            }
+        }
+    }
+
+    // Ждет, пока все ящики будут разобраны
+    public void awaitEmpty() {
+        for (Mailbox mailbox : mailboxes) {
+            mailbox.awaitEmpty();
+        }
+    }
+
+    public String metrics() {
+        StringBuilder sb = new StringBuilder();
+        for (Mailbox mailbox : mailboxes) {
+            sb.append(mailbox.metrics()).append('\n');
+        }
+        for (Mailbox mailbox : disconnected) {
+            sb.append(mailbox.metrics()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        for (Mailbox mailbox : mailboxes) {
+            mailbox.close();
+        }
+        for (Mailbox mailbox : disconnected) {
+            mailbox.close();
+        }
+    }
+}
+
+// Получатель сообщений из истории
+interface HistoryReader {
+    void onMessage(long offset, long timestampMillis, String sender, String message);
+}
+
+// Сегмент журнала: файл с записями начиная с baseOffset и разреженный индекс
+// (номер сообщения -> позиция в файле) для каждой INDEX_INTERVAL-й записи
+class LogSegment {
+    static final int INDEX_INTERVAL = 32;
+
+    final long baseOffset;
+    final Path file;
+    int count;
+    long size;
+    private int[] indexPositions = new int[16];
+    private int indexSize;
+    private MappedByteBuffer mapped;
+
+    LogSegment(long baseOffset, Path file) {
+        this.baseOffset = baseOffset;
+        this.file = file;
+    }
+
+    void appended(long position, int recordSize) {
+        if (count % INDEX_INTERVAL == 0) {
+            if (indexSize == indexPositions.length) {
+                indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+            }
+            indexPositions[indexSize++] = (int) position;
+        }
+        count++;
+        size = position + recordSize;
+    }
+
+    // Ближайшая проиндексированная запись не позже offset: {номер, позиция}
+    long[] floor(long offset) {
+        int entry = (int) Math.min((offset - baseOffset) / INDEX_INTERVAL, indexSize - 1);
+        return new long[] {baseOffset + (long) entry * INDEX_INTERVAL, indexPositions[entry]};
+    }
+
+    // Отображение файла в память только для чтения; для растущего
+    // сегмента переотображается, когда в нем появились новые записи
+    ByteBuffer view(FileChannel channel) throws IOException {
+        if (mapped == null || mapped.capacity() < size) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped.duplicate().limit((int) size);
+    }
+}
+
+// Журнал сообщений комнаты из сегментов только на дозапись. Номер сообщения
+// (offset) растет монотонно; файл сегмента называется по номеру первой записи.
+// Запись: длина, время, длина имени отправителя, имя и текст в UTF-8.
+// Сегмент закрывается по достижении segmentBytes, старые сегменты удаляются,
+// когда журнал превышает retentionBytes. Чтение идет через отображенные
+// в память файлы, без загрузки сегментов в кучу.
+class SegmentedMessageLog implements AutoCloseable {
+    private static final int HEADER_SIZE = 4 + 8 + 2;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long retentionBytes;
+    private final List<LogSegment> segments = new ArrayList<>();
+    private FileChannel active;
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private long totalBytes;
+    private long nextOffset;
+
+    public SegmentedMessageLog(Path dir, long segmentBytes, long retentionBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.seg")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);  // имена одинаковой длины, порядок совпадает с номерами
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            LogSegment segment = new LogSegment(Long.parseLong(name.substring(0, name.length() - 4)), file);
+            recover(segment);
+            segments.add(segment);
+            totalBytes += segment.size;
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+        } else {
+            LogSegment last = segments.get(segments.size() - 1);
+            nextOffset = last.baseOffset + last.count;
+            active = FileChannel.open(last.file, StandardOpenOption.WRITE);
+            active.position(last.size);
+        }
+    }
+
+    // Перестраивает индекс сегмента и обрезает недописанную последнюю запись
+    private static void recover(LogSegment segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            ByteBuffer length = ByteBuffer.allocate(4);
+            long position = 0;
+            while (position + 4 <= fileSize) {
+                length.clear();
+                channel.read(length, position);
+                int recordSize = 4 + length.flip().getInt();
+                if (recordSize < HEADER_SIZE || position + recordSize > fileSize) break;
+                segment.appended(position, recordSize);
+                position += recordSize;
+            }
+            if (position < fileSize) {
+                channel.truncate(position);
+            }
+            segment.size = position;
+        }
+    }
+
+    private void roll(long baseOffset) throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+        }
+        Path file = dir.resolve(String.format("%020d.seg", baseOffset));
+        active = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segments.add(new LogSegment(baseOffset, file));
+        // Удаляем самые старые сегменты сверх лимита; текущий не трогаем
+        while (totalBytes > retentionBytes && segments.size() > 1) {
+            LogSegment oldest = segments.remove(0);
+            totalBytes -= oldest.size;
+            Files.deleteIfExists(oldest.file);
+        }
+    }
+
+    // Возвращает номер записанного сообщения
+    public synchronized long append(String sender, String message) throws IOException {
+        byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        int recordSize = HEADER_SIZE + senderBytes.length + messageBytes.length;
+        if (record.capacity() < recordSize) {
+            record = ByteBuffer.allocate(Math.max(recordSize, record.capacity() * 2));
+        }
+        record.clear();
+        record.putInt(recordSize - 4).putLong(System.currentTimeMillis())
+                .putShort((short) senderBytes.length).put(senderBytes).put(messageBytes).flip();
+        LogSegment segment = segments.get(segments.size() - 1);
+        if (segment.count > 0 && segment.size + recordSize > segmentBytes) {
+            roll(nextOffset);
+            segment = segments.get(segments.size() - 1);
+        }
+        long position = segment.size;
+        while (record.hasRemaining()) {
+            active.write(record);
+        }
+        segment.appended(position, recordSize);
+        totalBytes += recordSize;
+        return nextOffset++;
+    }
+
+    public synchronized long startOffset() {
+        return segments.get(0).baseOffset;
+    }
+
+    // Номер, который получит следующее сообщение
+    public synchronized long endOffset() {
+        return nextOffset;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    // Читает до maxMessages сообщений начиная с fromOffset (или с самого старого
+    // сохраненного) и возвращает номер, с которого продолжать чтение
+    public long read(long fromOffset, int maxMessages, HistoryReader reader) throws IOException {
+        byte[] scratch = new byte[256];
+        long offset = fromOffset;
+        int remaining = maxMessages;
+        while (remaining > 0) {
+            LogSegment segment;
+            ByteBuffer view;
+            long[] start;
+            long end;
+            // Индекс сегмента растет при append, поэтому floor считается под той же блокировкой
+            synchronized (this) {
+                offset = Math.max(offset, segments.get(0).baseOffset);
+                end = nextOffset;
+                if (offset >= end) break;
+                segment = segmentFor(offset);
+                try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+                    view = segment.view(channel);
+                }
+                end = Math.min(end, segment.baseOffset + segment.count);
+                start = segment.floor(offset);
+            }
+            long current = start[0];
+            view.position((int) start[1]);
+            while (current < end && remaining > 0) {
+                int recordSize = 4 + view.getInt();
+                int next = view.position() - 4 + recordSize;
+                if (current < offset) {
+                    view.position(next);
+                    current++;
+                    continue;
+                }
+                long timestamp = view.getLong();
+                int senderLength = view.getShort() & 0xffff;
+                int messageLength = recordSize - HEADER_SIZE - senderLength;
+                if (scratch.length < Math.max(senderLength, messageLength)) {
+                    scratch = new byte[Math.max(senderLength, messageLength)];
+                }
+                view.get(scratch, 0, senderLength);
+                String sender = new String(scratch, 0, senderLength, StandardCharsets.UTF_8);
+                view.get(scratch, 0, messageLength);
+                String message = new String(scratch, 0, messageLength, StandardCharsets.UTF_8);
+                reader.onMessage(current, timestamp, sender, message);
+                current++;
+                remaining--;
+            }
+            offset = current;
+        }
+        return offset;
+    }
+
+    // Последний сегмент с baseOffset <= offset
+    private LogSegment segmentFor(long offset) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).baseOffset <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return segments.get(low);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        active.force(false);
+        active.close();
+    }
+}
+
+// Декоратор комнаты, сохраняющий общие сообщения в журнал. Новый участник
+// может сначала дочитать историю с любого номера, а затем войти в комнату.
+class HistoryChatRoom implements ChatMediator {
+    private final ChatMediator delegate;
+    private final SegmentedMessageLog log;
+
+    public HistoryChatRoom(ChatMediator delegate, SegmentedMessageLog log) {
+        this.delegate = delegate;
+        this.log = log;
+    }
+
+    public void addUser(User user) {
+        delegate.addUser(user);
+    }
+
+    // Запись в журнал и рассылка под одной блокировкой, чтобы входящий
+    // участник не пропустил и не получил дважды сообщение на стыке
+    public synchronized void sendMessage(String message, User sender) {
+        try {
+            log.append(sender.name, message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        delegate.sendMessage(message, sender);
+    }
+
+    // Доставляет историю с fromOffset и добавляет участника в комнату
+    public synchronized void joinWithHistory(User user, long fromOffset) {
+        try {
+            long offset = fromOffset;
+            while (offset < log.endOffset()) {
+                offset = log.read(offset, 1024, (o, timestamp, sender, message) ->
+                        user.receive("[" + o + "] " + sender + ": " + message));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        delegate.addUser(user);
+    }
+
+    public void sendDirect(String message, User sender, String recipient) {
+        delegate.sendDirect(message, sender, recipient);
+    }
+
+    public void sendToGroup(String message, User sender, String group) {
+        delegate.sendToGroup(message, sender, group);
+    }
+
+    public void joinGroup(String group, User user) {
+        delegate.joinGroup(group, user);
+    }
+
+    public boolean isOnline(String name) {
+        return delegate.isOnline(name);
+    }
+}
+
+// Сообщение, закодированное один раз: кадр [длина][длина имени][имя][текст]
+// в UTF-8 лежит в прямом буфере только для чтения. Каждый получатель
+// работает со своим duplicate(), то есть с общей памятью и своей позицией.
+final class MessageEnvelope {
+    private final ByteBuffer frame;
+
+    private MessageEnvelope(ByteBuffer frame) {
+        this.frame = frame;
+    }
+
+    public static MessageEnvelope encode(String sender, String message) {
+        byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        int size = 4 + 2 + senderBytes.length + messageBytes.length;
+        ByteBuffer frame = ByteBuffer.allocateDirect(size);
+        frame.putInt(size - 4).putShort((short) senderBytes.length).put(senderBytes).put(messageBytes).flip();
+        return new MessageEnvelope(frame.asReadOnlyBuffer());
+    }
+
+    // Независимое представление общего кадра для одного получателя
+    public ByteBuffer payload() {
+        return frame.duplicate();
+    }
+
+    public int size() {
+        return frame.remaining();
+    }
+}
+
+// Транспорт до участников; реализации поверх сокетов, каналов и т.п.
+interface ChatTransport {
+    ChatConnection connect(User user) throws IOException;
+}
+
+interface ChatConnection extends AutoCloseable {
+    User user();
+
+    void write(MessageEnvelope envelope) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
+
+// Соединение поверх любого GatheringByteChannel: заголовок соединения
+// (номер кадра) и общий кадр уходят одной векторной записью, без копирования
+class ChannelConnection implements ChatConnection {
+    private final User user;
+    private final GatheringByteChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(8);
+    private final ByteBuffer[] frame = new ByteBuffer[2];
+    private long sequence;
+
+    public ChannelConnection(User user, GatheringByteChannel channel) {
+        this.user = user;
+        this.channel = channel;
+    }
+
+    public User user() {
+        return user;
+    }
+
+    public synchronized void write(MessageEnvelope envelope) throws IOException {
+        header.clear();
+        header.putLong(sequence++).flip();
+        frame[0] = header;
+        frame[1] = envelope.payload();
+        while (frame[1].hasRemaining()) {
+            channel.write(frame);
+        }
+        frame[1] = null;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// Транспорт внутри процесса: на каждого участника Pipe, из которого
+// виртуальный поток читает кадры, декодирует их и вызывает receive
+class InProcessTransport implements ChatTransport {
+    private final LongAdder failedDeliveries = new LongAdder();
+
+    public ChatConnection connect(User user) throws IOException {
+        Pipe pipe = Pipe.open();
+        Thread reader = Thread.ofVirtual().name("transport-" + user.name).start(() -> read(pipe.source(), user));
+        return new ChannelConnection(user, pipe.sink()) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    // Сообщения, на которых участники бросили исключение
+    public long failedDeliveries() {
+        return failedDeliveries.sum();
+    }
+
+    private void read(ReadableByteChannel source, User user) {
+        ByteBuffer header = ByteBuffer.allocate(8 + 4 + 2);
+        ByteBuffer body = ByteBuffer.allocate(256);
+        try (source) {
+            while (readFully(source, header.clear())) {
+                header.flip();
+                header.getLong();  // номер кадра
+                int size = header.getInt() - 2;
+                int senderLength = header.getShort() & 0xffff;
+                if (body.capacity() < size) {
+                    body = ByteBuffer.allocate(size);
+                }
+                body.clear().limit(size);
+                if (!readFully(source, body)) return;
+                String message = new String(body.array(), senderLength, size - senderLength, StandardCharsets.UTF_8);
+                // Исключение получателя не должно закрывать его канал
+                try {
+                    user.receive(message);
+                } catch (RuntimeException e) {
+                    failedDeliveries.increment();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // false - канал закрыт до конца кадра
+    private static boolean readFully(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) return false;
+        }
+        return true;
+    }
+}
+
+// Посредник поверх транспорта: сообщение кодируется один раз на рассылку,
+// а каждому получателю уходит представление того же буфера
+class TransportChatRoom implements ChatMediator, AutoCloseable {
+    private final ChatTransport transport;
+    private final List<ChatConnection> connections = new CopyOnWriteArrayList<>();
+    private final MemberDirectory<ChatConnection> directory = new MemberDirectory<>();  // под собственной блокировкой
+    private final LongAdder failedWrites = new LongAdder();
+
+    public TransportChatRoom(ChatTransport transport) {
+        this.transport = transport;
+    }
+
+    public void addUser(User user) {
+        ChatConnection connection;
+        try {
+            connection = transport.connect(user);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (directory) {
+            directory.add(user.name, connection);
+        }
+        connections.add(connection);
+    }
+
+    public void sendMessage(String message, User sender) {
+        MessageEnvelope envelope = MessageEnvelope.encode(sender.name, message);
+        for (ChatConnection connection : connections) {
+            if (connection.user() != sender) {
+                write(connection, envelope);
+            }
+        }
+    }
+
+    public void sendDirect(String message, User sender, String recipient) {
+        ChatConnection connection;
+        synchronized (directory) {
+            connection = directory.find(recipient);
+        }
+        if (connection == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        write(connection, MessageEnvelope.encode(sender.name, message));
+    }
+
+    public void sendToGroup(String message, User sender, String group) {
+        List<ChatConnection> recipients = new ArrayList<>();
+        synchronized (directory) {
+            BitSet members = directory.group(group);
+            for (int id = members.nextSetBit(0); id >= 0; id = members.nextSetBit(id + 1)) {
+                ChatConnection connection = directory.member(id);
+                if (connection.user() != sender) {
+                    recipients.add(connection);
+                }
+            }
+        }
+        MessageEnvelope envelope = MessageEnvelope.encode(sender.name, message);
+        for (ChatConnection connection : recipients) {
+            write(connection, envelope);
+        }
+    }
+
+    public void joinGroup(String group, User user) {
+        synchronized (directory) {
+            directory.joinGroup(group, user.name);
+        }
+    }
+
+    public boolean isOnline(String name) {
+        synchronized (directory) {
+            return directory.idOf(name) >= 0;
+        }
+    }
+
+    // Записи, которые не удались; такие соединения исключаются из комнаты
+    public long failedWrites() {
+        return failedWrites.sum();
+    }
+
+    // Сбой одного соединения не прерывает рассылку остальным
+    private void write(ChatConnection connection, MessageEnvelope envelope) {
+        try {
+            connection.write(envelope);
+        } catch (IOException e) {
+            failedWrites.increment();
+            drop(connection);
+        }
+    }
+
+    private void drop(ChatConnection connection) {
+        if (!connections.remove(connection)) return;
+        synchronized (directory) {
+            directory.remove(connection.user().name);
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // соединение уже неисправно
+        }
+    }
+
+    // Закрывает все соединения, даже если часть из них закрыть не удалось;
+    // получатели дочитывают уже отправленное
+    @Override
+    public void close() {
+        IOException failure = null;
+        for (ChatConnection connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        connections.clear();
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
 }
 
 // Абстрактный участник
@@ -50,6 +1374,14 @@ abstract class User {
 
     public abstract void send(String message);
     public abstract void receive(String message);
+
+    public void sendDirect(String recipient, String message) {
+        mediator.sendDirect(message, this, recipient);
+    }
+
+    public void sendToGroup(String group, String message) {
+        mediator.sendToGroup(message, this, group);
+    }
 }
 
 // Конкретный участник
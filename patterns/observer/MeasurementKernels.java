@@ -0,0 +1,54 @@
+// Ядра min/max/сумма по массиву показаний. Векторная реализация лежит
+// в отдельном каталоге vector/ и собирается только с модулем
+// jdk.incubator.vector; обычная сборка (javac *.java) ее не видит.
+// Если класса нет или модуль не подключен при запуске, выбирается скалярная.
+interface MeasurementKernels {
+    MeasurementKernels INSTANCE = load();
+
+    float min(float[] values, int len);
+    float max(float[] values, int len);
+    double sum(float[] values, int len);
+
+    private static MeasurementKernels load() {
+        try {
+            return (MeasurementKernels) Class.forName("VectorMeasurementKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarMeasurementKernels();
+        }
+    }
+}
+
+class ScalarMeasurementKernels implements MeasurementKernels {
+    @Override
+    public float min(float[] values, int len) {
+        float result = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < len; i++) {
+            result = Math.min(result, values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public float max(float[] values, int len) {
+        float result = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < len; i++) {
+            result = Math.max(result, values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public double sum(float[] values, int len) {
+        double result = 0;
+        for (int i = 0; i < len; i++) {
+            result += values[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
\ No newline at end of file
@@ -1,5 +1,28 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 public class ObserverPatternDemo {
     public static void main(String[] args) {
@@ -28,6 +51,147 @@ public class ObserverPatternDemo {
         
         System.out.println("\n=== Третье обновление данных (без статистики) ===");
         weatherStation.setMeasurements(22, 90, 1015);
+
+        // Медленный дисплей получает показания асинхронно через свою очередь
+        System.out.println("\n=== Асинхронная доставка медленному дисплею ===");
+        WeatherStation asyncStation = new WeatherStation();
+        Observer slowDisplay = (temperature, humidity, pressure) -> {
+            sleep(50);
+            System.out.println("[Медленный дисплей] " + temperature + "°C");
+        };
+        AsyncObserver asyncDisplay = asyncStation.registerAsyncObserver(slowDisplay, 2, OverflowPolicy.DROP_OLDEST);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            asyncStation.setMeasurements(20 + i, 60, 1012);
+        }
+        System.out.println("5 показаний отправлены за " + (System.nanoTime() - start) / 1_000 + " мкс");
+        asyncStation.removeObserver(asyncDisplay);
+        asyncDisplay.close();
+        System.out.println(asyncDisplay.metrics());
+
+        // Дисплею текущих условий важно только последнее показание
+        System.out.println("\n=== Доставка только последнего показания ===");
+        WeatherStation busyStation = new WeatherStation();
+        ConflatingObserver latestOnly = busyStation.registerConflatingObserver((temperature, humidity, pressure) -> {
+            sleep(20);
+        });
+        for (int i = 0; i < 10_000; i++) {
+            busyStation.setMeasurements(i / 100f, 50, 1013);
+        }
+        busyStation.removeObserver(latestOnly);
+        latestOnly.close();
+        System.out.println(latestOnly.metrics());
+
+        // Тысяча станций, по одному писателю и одному потребителю на шард
+        System.out.println("\n=== Конвейер приема данных от 1000 станций ===");
+        int shardCount = Math.max(1, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() / 2));
+        LongAdder received = new LongAdder();
+        long begin;
+        try (WeatherIngestionPipeline pipeline = new WeatherIngestionPipeline(1000, shardCount, 4096)) {
+            for (int id = 0; id < 1000; id++) {
+                pipeline.station(id).registerObserver((temperature, humidity, pressure) -> received.increment());
+            }
+            Thread[] producers = new Thread[shardCount];
+            begin = System.nanoTime();
+            for (int shard = 0; shard < shardCount; shard++) {
+                int s = shard;
+                producers[shard] = new Thread(() -> {
+                    int perShard = 1000 / shardCount;
+                    for (int i = 0; i < 1_000_000; i++) {
+                        int stationId = s + (i % perShard) * shardCount;  // станции своего шарда
+                        pipeline.publish(stationId, 20 + i % 10, 60, 1013);
+                    }
+                });
+                producers[shard].start();
+            }
+            for (Thread producer : producers) {
+                try {
+                    producer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        // Закрытие конвейера дожидается доставки всего опубликованного
+        long micros = Math.max(1, (System.nanoTime() - begin) / 1_000);
+        System.out.println("Доставлено " + received.sum() + " показаний, "
+                + received.sum() * 1_000_000L / micros + " в секунду на " + shardCount + " шардах");
+
+        // Запись показаний в журнал и воспроизведение для нагрузочного теста
+        System.out.println("\n=== Журнал показаний и воспроизведение ===");
+        try {
+            Path log = Files.createTempFile("measurements", ".wlog");
+            WeatherStation recordedStation = new WeatherStation();
+            try (MeasurementLogObserver recorder = new MeasurementLogObserver(log)) {
+                recordedStation.registerObserver(recorder);
+                for (int i = 0; i < 1_000_000; i++) {
+                    recordedStation.setMeasurements(15 + (i % 200) / 10f, 40 + i % 50, 1000 + i % 20);
+                }
+                recordedStation.removeObserver(recorder);
+            }
+            MeasurementReplayer replayer = new MeasurementReplayer(log);
+            // Статистика считается по записанному времени, а не по текущему
+            StreamingStatistics backfilled = new StreamingStatistics(replayer.recordedClock());
+            WeatherStation replayStation = new WeatherStation();
+            replayStation.registerObserver(backfilled::add);
+            ReplayResult result = replayer.replay(replayStation, ReplayPace.AS_FAST_AS_POSSIBLE);
+            System.out.println(result);
+            new StatisticsDisplay(backfilled).display();
+            Files.delete(log);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Дисплеи перерисовываются не чаще 10 раз в секунду, сколько бы ни пришло показаний
+        System.out.println("\n=== Отрисовка с ограничением частоты ===");
+        WeatherStation fastStation = new WeatherStation();
+        CurrentConditionsDisplay throttledCurrent = new CurrentConditionsDisplay();
+        ForecastDisplay throttledForecast = new ForecastDisplay();
+        fastStation.registerObserver(throttledCurrent);
+        fastStation.registerObserver(throttledForecast);
+        try (DisplayRenderer renderer = DisplayRenderer.toStandardOutput(10)) {
+            renderer.attach(throttledCurrent);
+            renderer.attach(throttledForecast);
+            for (int i = 0; i < 200; i++) {
+                fastStation.setMeasurements(20 + i / 100f, 55, 1000 + i % 3);
+                sleep(1);
+            }
+        }
+        System.out.flush();
+
+        // Миллион показаний пачками по 4096
+        System.out.println("\n=== Пакетная передача показаний (" + MeasurementKernels.INSTANCE + ") ===");
+        int total = 1 << 20;
+        int batchSize = 4096;
+        float[] temperatures = new float[batchSize];
+        float[] humidities = new float[batchSize];
+        float[] pressures = new float[batchSize];
+        WeatherStation backfillStation = new WeatherStation();
+        StatisticsDisplay batchStatistics = new StatisticsDisplay();
+        backfillStation.registerObserver(batchStatistics);
+        try (DisplayRenderer renderer = DisplayRenderer.toStandardOutput(10)) {
+            renderer.attach(batchStatistics);
+            long batchStart = System.nanoTime();
+            for (int sent = 0; sent < total; sent += batchSize) {
+                for (int i = 0; i < batchSize; i++) {
+                    temperatures[i] = -10 + ((sent + i) % 400) / 10f;
+                    humidities[i] = 30 + (sent + i) % 60;
+                    pressures[i] = 990 + (sent + i) % 40;
+                }
+                backfillStation.setMeasurements(temperatures, humidities, pressures, batchSize);
+            }
+            long batchMicros = Math.max(1, (System.nanoTime() - batchStart) / 1_000);
+            System.out.println("Передано " + total + " показаний, " + total * 1_000_000L / batchMicros + " в секунду");
+        }
+        System.out.flush();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
 
@@ -43,27 +207,59 @@ interface Observer {
     void update(float temperature, float humidity, float pressure);
 }
 
+// Наблюдатель, принимающий показания пачкой: один вызов на пачку вместо
+// трех аргументов на каждое показание. Массивы действительны только на время вызова.
+interface BatchObserver extends Observer {
+    void updateBatch(float[] temperatures, float[] humidities, float[] pressures, int len);
+}
+
 // 3. Конкретный субъект (метеостанция)
 class WeatherStation implements Subject {
-    private final List<Observer> observers = new ArrayList<>();
+    private static final Observer[] NO_OBSERVERS = new Observer[0];
+
+    // Копирование при записи: регистрация подменяет массив атомарно,
+    // а оповещение обходит неизменяемый снимок без блокировок и итераторов
+    private final AtomicReference<Observer[]> observers = new AtomicReference<>(NO_OBSERVERS);
     private float temperature;
     private float humidity;
     private float pressure;
     
     @Override
     public void registerObserver(Observer o) {
-        observers.add(o);
+        Observer[] current;
+        Observer[] next;
+        do {
+            current = observers.get();
+            next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = o;
+        } while (!observers.compareAndSet(current, next));
     }
     
     @Override
     public void removeObserver(Observer o) {
-        observers.remove(o);
+        Observer[] current;
+        Observer[] next;
+        do {
+            current = observers.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].equals(o)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) return;
+            next = new Observer[current.length - 1];
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index + 1, next, index, next.length - index);
+        } while (!observers.compareAndSet(current, next));
     }
     
     @Override
     public void notifyObservers() {
-        for (Observer observer : observers) {
-            observer.update(temperature, humidity, pressure);
+        Observer[] snapshot = observers.get();
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i].update(temperature, humidity, pressure);
         }
     }
     
@@ -77,71 +273,1230 @@ class WeatherStation implements Subject {
     private void measurementsChanged() {
         notifyObservers();
     }
+
+    // Пачка показаний: BatchObserver получает массивы целиком,
+    // обычные наблюдатели - каждое показание по очереди
+    public void setMeasurements(float[] temperatures, float[] humidities, float[] pressures, int len) {
+        if (len < 0 || len > temperatures.length || len > humidities.length || len > pressures.length) {
+            throw new IllegalArgumentException("Invalid batch length: " + len);
+        }
+        if (len == 0) return;
+        this.temperature = temperatures[len - 1];
+        this.humidity = humidities[len - 1];
+        this.pressure = pressures[len - 1];
+        Observer[] snapshot = observers.get();
+        for (int i = 0; i < snapshot.length; i++) {
+            Observer o = snapshot[i];
+            if (o instanceof BatchObserver batch) {
+                batch.updateBatch(temperatures, humidities, pressures, len);
+            } else {
+                for (int j = 0; j < len; j++) {
+                    o.update(temperatures[j], humidities[j], pressures[j]);
+                }
+            }
+        }
+    }
+
+    // Регистрирует наблюдателя с собственной очередью и потоком доставки
+    public AsyncObserver registerAsyncObserver(Observer o, int capacity, OverflowPolicy policy) {
+        AsyncObserver async = new AsyncObserver(o, capacity, policy);
+        registerObserver(async);
+        return async;
+    }
+
+    // Регистрирует наблюдателя, которому доставляется только последнее показание
+    public ConflatingObserver registerConflatingObserver(Observer o) {
+        ConflatingObserver conflating = new ConflatingObserver(o);
+        registerObserver(conflating);
+        return conflating;
+    }
 }
 
 // 4. Конкретные наблюдатели
 
+// Дисплей с отложенной отрисовкой. update только меняет состояние и
+// помечает дисплей измененным; пока рендерер не подключен, вывод идет
+// сразу, как раньше. С рендерером отрисовка выполняется в его потоке не
+// чаще заданной частоты, а путь обновления не аллоцирует и не пишет в вывод.
+abstract class RenderedDisplay implements BatchObserver {
+    private volatile DisplayRenderer renderer;
+    private boolean dirty;
+
+    @Override
+    public final void update(float temperature, float humidity, float pressure) {
+        synchronized (this) {
+            apply(temperature, humidity, pressure);
+            dirty = true;
+        }
+        if (renderer == null) {
+            display();
+        }
+    }
+
+    @Override
+    public final void updateBatch(float[] temperatures, float[] humidities, float[] pressures, int len) {
+        synchronized (this) {
+            applyBatch(temperatures, humidities, pressures, len);
+            dirty = true;
+        }
+        if (renderer == null) {
+            display();
+        }
+    }
+
+    // Обновляет состояние дисплея новым показанием
+    protected abstract void apply(float temperature, float humidity, float pressure);
+
+    // Обновляет состояние пачкой показаний; по умолчанию - по одному
+    protected void applyBatch(float[] temperatures, float[] humidities, float[] pressures, int len) {
+        for (int i = 0; i < len; i++) {
+            apply(temperatures[i], humidities[i], pressures[i]);
+        }
+    }
+
+    // Дописывает текущее состояние в out одной строкой с переводом строки
+    protected abstract void render(StringBuilder out);
+
+    public void display() {
+        StringBuilder out = new StringBuilder();
+        synchronized (this) {
+            dirty = false;
+            render(out);
+        }
+        System.out.print(out);
+    }
+
+    // Отрисовывает дисплей, только если он менялся с прошлого кадра
+    synchronized boolean renderIfDirty(StringBuilder out) {
+        if (!dirty) return false;
+        dirty = false;
+        render(out);
+        return true;
+    }
+
+    void attach(DisplayRenderer renderer) {
+        this.renderer = renderer;
+    }
+}
+
 // Дисплей текущих условий
-class CurrentConditionsDisplay implements Observer {
+class CurrentConditionsDisplay extends RenderedDisplay {
     private float temperature;
     private float humidity;
     
     @Override
-    public void update(float temperature, float humidity, float pressure) {
+    protected void apply(float temperature, float humidity, float pressure) {
         this.temperature = temperature;
         this.humidity = humidity;
-        display();
+    }
+
+    @Override
+    protected void applyBatch(float[] temperatures, float[] humidities, float[] pressures, int len) {
+        apply(temperatures[len - 1], humidities[len - 1], pressures[len - 1]);
     }
     
-    public void display() {
-        System.out.println("[Текущие условия] " + temperature + "°C, " + humidity + "% влажности");
+    @Override
+    protected void render(StringBuilder out) {
+        out.append("[Текущие условия] ").append(temperature).append("°C, ")
+                .append(humidity).append("% влажности\n");
     }
 }
 
-// Дисплей статистики
-class StatisticsDisplay implements Observer {
-    private float maxTemp = Float.MIN_VALUE;
-    private float minTemp = Float.MAX_VALUE;
-    private float tempSum = 0.0f;
-    private int numReadings = 0;
+// Дисплей статистики: температура за последний час
+class StatisticsDisplay extends RenderedDisplay {
+    private final StreamingStatistics statistics;
+
+    public StatisticsDisplay() {
+        this(new StreamingStatistics());
+    }
+
+    public StatisticsDisplay(StreamingStatistics statistics) {
+        this.statistics = statistics;
+    }
     
     @Override
-    public void update(float temperature, float humidity, float pressure) {
-        tempSum += temperature;
-        numReadings++;
-        
-        if (temperature > maxTemp) maxTemp = temperature;
-        if (temperature < minTemp) minTemp = temperature;
-        
-        display();
+    protected void apply(float temperature, float humidity, float pressure) {
+        statistics.add(temperature, humidity, pressure);
+    }
+
+    @Override
+    protected void applyBatch(float[] temperatures, float[] humidities, float[] pressures, int len) {
+        statistics.addBatch(temperatures, humidities, pressures, len);
     }
     
-    public void display() {
-        System.out.println("[Статистика] Средняя: " + (tempSum/numReadings) + 
-                         "°C, Макс: " + maxTemp + "°C, Мин: " + minTemp + "°C");
+    @Override
+    protected void render(StringBuilder out) {
+        Channel t = Channel.TEMPERATURE;
+        StatsWindow hour = StatsWindow.ONE_HOUR;
+        // В пустом окне показатели - NaN и бесконечности, их не выводим
+        if (statistics.count(t, hour) == 0) {
+            out.append("[Статистика] Нет данных за последний час\n");
+            return;
+        }
+        out.append("[Статистика] Средняя: ").append((float) statistics.mean(t, hour))
+                .append("°C, Макс: ").append(statistics.max(t, hour))
+                .append("°C, Мин: ").append(statistics.min(t, hour))
+                .append("°C, p95: ").append(statistics.percentile(t, hour, 0.95)).append("°C\n");
     }
 }
 
 // Дисплей прогноза
-class ForecastDisplay implements Observer {
+class ForecastDisplay extends RenderedDisplay {
     private float lastPressure;
     private float currentPressure = 1013;
     
     @Override
-    public void update(float temperature, float humidity, float pressure) {
+    protected void apply(float temperature, float humidity, float pressure) {
         lastPressure = currentPressure;
         currentPressure = pressure;
-        display();
+    }
+
+    // Прогнозу нужны только два последних давления
+    @Override
+    protected void applyBatch(float[] temperatures, float[] humidities, float[] pressures, int len) {
+        lastPressure = len > 1 ? pressures[len - 2] : currentPressure;
+        currentPressure = pressures[len - 1];
     }
     
-    public void display() {
-        System.out.print("[Прогноз] ");
+    @Override
+    protected void render(StringBuilder out) {
+        out.append("[Прогноз] ");
         if (currentPressure > lastPressure) {
-            System.out.println("Улучшение погоды!");
+            out.append("Улучшение погоды!\n");
         } else if (currentPressure == lastPressure) {
-            System.out.println("Погода не изменится");
+            out.append("Погода не изменится\n");
         } else {
-            System.out.println("Ожидаются осадки");
+            out.append("Ожидаются осадки\n");
+        }
+    }
+}
+
+// 5. Асинхронная доставка
+
+// Что делать, когда очередь наблюдателя заполнена
+enum OverflowPolicy {
+    BLOCK,        // производитель ждет, пока освободится место
+    DROP_OLDEST,  // самое старое показание выбрасывается
+    CONFLATE      // последнее показание в очереди заменяется новым
+}
+
+// Обертка над наблюдателем: показания складываются в заранее выделенный
+// кольцевой буфер, а отдельный виртуальный поток передает их наблюдателю.
+// Медленный дисплей больше не задерживает setMeasurements.
+class AsyncObserver implements Observer, AutoCloseable {
+    private final Observer delegate;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final float[] temperatures;
+    private final float[] humidities;
+    private final float[] pressures;
+    private final long[] enqueuedAt;
+    private long head;  // номер следующего показания к доставке
+    private long tail;  // номер следующей свободной ячейки
+    private boolean closed;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread consumer;
+
+    // Метрики (под lock)
+    private long published;
+    private long delivered;
+    private long dropped;
+    private long conflated;
+    private long failed;   // наблюдатель бросил исключение
+    private long maxLag;
+    private long lastLatencyNanos;
+
+    public AsyncObserver(Observer delegate, int capacity, OverflowPolicy policy) {
+        if (delegate == null || policy == null) {
+            throw new IllegalArgumentException("delegate and policy must not be null");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.delegate = delegate;
+        this.policy = policy;
+        this.capacity = capacity;
+        temperatures = new float[capacity];
+        humidities = new float[capacity];
+        pressures = new float[capacity];
+        enqueuedAt = new long[capacity];
+        consumer = Thread.ofVirtual().name("observer-" + delegate.getClass().getSimpleName()).start(this::drain);
+    }
+
+    @Override
+    public void update(float temperature, float humidity, float pressure) {
+        lock.lock();
+        try {
+            if (closed) return;
+            if (tail - head == capacity) {
+                switch (policy) {
+                    case BLOCK -> {
+                        while (tail - head == capacity && !closed) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        if (closed) return;
+                    }
+                    case DROP_OLDEST -> {
+                        head++;
+                        dropped++;
+                    }
+                    case CONFLATE -> {
+                        tail--;
+                        conflated++;
+                    }
+                }
+            }
+            // Считаются только принятые показания: ожидание в BLOCK могло прерваться закрытием
+            published++;
+            int i = (int) (tail % capacity);
+            temperatures[i] = temperature;
+            humidities[i] = humidity;
+            pressures[i] = pressure;
+            enqueuedAt[i] = System.nanoTime();
+            tail++;
+            maxLag = Math.max(maxLag, tail - head);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Поток доставки забирает все накопленное за один захват блокировки
+    private void drain() {
+        float[] t = new float[capacity];
+        float[] h = new float[capacity];
+        float[] p = new float[capacity];
+        while (true) {
+            int n;
+            long oldestEnqueuedAt;
+            lock.lock();
+            try {
+                while (head == tail && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail) return;  // закрыт и все доставлено
+                n = (int) (tail - head);
+                oldestEnqueuedAt = enqueuedAt[(int) (head % capacity)];
+                for (int k = 0; k < n; k++) {
+                    int i = (int) ((head + k) % capacity);
+                    t[k] = temperatures[i];
+                    h[k] = humidities[i];
+                    p[k] = pressures[i];
+                }
+                head = tail;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            // Исключение одного показания не должно останавливать поток доставки
+            int errors = 0;
+            for (int k = 0; k < n; k++) {
+                try {
+                    delegate.update(t[k], h[k], p[k]);
+                } catch (RuntimeException e) {
+                    errors++;
+                }
+            }
+            lock.lock();
+            try {
+                delivered += n - errors;
+                failed += errors;
+                lastLatencyNanos = System.nanoTime() - oldestEnqueuedAt;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Отставание: показания, принятые, но еще не доставленные наблюдателю
+    public long lag() {
+        lock.lock();
+        try {
+            return published - delivered - dropped - conflated - failed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String metrics() {
+        lock.lock();
+        try {
+            return "published=" + published + ", delivered=" + delivered + ", dropped=" + dropped
+                    + ", conflated=" + conflated + ", failed=" + failed
+                    + ", lag=" + (published - delivered - dropped - conflated - failed)
+                    + ", maxLag=" + maxLag + ", lastLatencyMicros=" + lastLatencyNanos / 1_000;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Прекращает прием показаний и ждет доставки уже принятых
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// 6. Доставка последнего значения
+
+// Показание публикуется в единственный слот под seqlock: писатель делает
+// счетчик нечетным, пишет три поля и делает его снова четным; читатель
+// перечитывает слот, если счетчик изменился во время чтения. Промежуточные
+// показания схлопываются, поэтому медленный наблюдатель не копит очередь.
+class ConflatingObserver implements BatchObserver, AutoCloseable {
+    private static final VarHandle SEQ;
+
+    static {
+        try {
+            SEQ = MethodHandles.lookup().findVarHandle(ConflatingObserver.class, "seq", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Observer delegate;
+    private volatile long seq;        // четное - слот согласован, нечетное - идет запись
+    private float temperature;
+    private float humidity;
+    private float pressure;
+    private volatile boolean waiting; // поток доставки собирается уснуть
+    private volatile boolean closed;
+    private volatile long delivered;
+    private volatile long failed;     // наблюдатель бросил исключение
+    private final Thread consumer;
+
+    public ConflatingObserver(Observer delegate) {
+        this.delegate = delegate;
+        consumer = Thread.ofVirtual().name("latest-" + delegate.getClass().getSimpleName()).start(this::drain);
+    }
+
+    @Override
+    public void update(float temperature, float humidity, float pressure) {
+        long s;
+        // CAS на нечетное значение дает эксклюзивность нескольким писателям
+        do {
+            s = seq;
+        } while ((s & 1) != 0 || !SEQ.compareAndSet(this, s, s + 1));
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.pressure = pressure;
+        seq = s + 2;
+        if (waiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    // Из пачки важно только последнее показание
+    @Override
+    public void updateBatch(float[] temperatures, float[] humidities, float[] pressures, int len) {
+        update(temperatures[len - 1], humidities[len - 1], pressures[len - 1]);
+    }
+
+    private void drain() {
+        long lastSeen = 0;
+        while (true) {
+            long s = seq;
+            if (s == lastSeen) {
+                if (closed) return;
+                waiting = true;
+                if (seq == lastSeen && !closed) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                continue;
+            }
+            if ((s & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            float t = temperature;
+            float h = humidity;
+            float p = pressure;
+            VarHandle.loadLoadFence();
+            if (seq != s) continue;  // слот переписали во время чтения
+            lastSeen = s;
+            // Исключение одного показания не должно останавливать поток доставки
+            try {
+                delegate.update(t, h, p);
+                delivered++;
+            } catch (RuntimeException e) {
+                failed++;
+            }
+        }
+    }
+
+    public long published() {
+        return seq >>> 1;
+    }
+
+    public String metrics() {
+        long published = published();
+        long delivered = this.delivered;
+        long failed = this.failed;
+        return "published=" + published + ", delivered=" + delivered + ", failed=" + failed
+                + ", conflated=" + (published - delivered - failed);
+    }
+
+    // Доставляет последнее показание, если оно еще не доставлено, и останавливает поток
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// 7. Потоковая статистика по окнам
+
+// Каналы измерений и диапазоны их гистограмм (шаг 0.1)
+enum Channel {
+    TEMPERATURE(-60f, 60f),
+    HUMIDITY(0f, 100f),
+    PRESSURE(870f, 1090f);
+
+    final float low;
+    final float high;
+
+    Channel(float low, float high) {
+        this.low = low;
+        this.high = high;
+    }
+}
+
+enum StatsWindow {
+    ONE_MINUTE(60_000L),
+    FIVE_MINUTES(300_000L),
+    ONE_HOUR(3_600_000L);
+
+    final long millis;
+
+    StatsWindow(long millis) {
+        this.millis = millis;
+    }
+}
+
+// Статистика по всем каналам и окнам: min/max/среднее и перцентили
+class StreamingStatistics {
+    private final LongSupplier clockMillis;
+    private final WindowedStats[][] stats;
+
+    public StreamingStatistics() {
+        this(System::currentTimeMillis);
+    }
+
+    public StreamingStatistics(LongSupplier clockMillis) {
+        this.clockMillis = clockMillis;
+        Channel[] channels = Channel.values();
+        StatsWindow[] windows = StatsWindow.values();
+        stats = new WindowedStats[channels.length][windows.length];
+        for (Channel channel : channels) {
+            for (StatsWindow window : windows) {
+                stats[channel.ordinal()][window.ordinal()] = new WindowedStats(window.millis, channel.low, channel.high);
+            }
+        }
+    }
+
+    public void add(float temperature, float humidity, float pressure) {
+        long now = clockMillis.getAsLong();
+        for (int w = 0; w < stats[0].length; w++) {
+            stats[0][w].add(now, temperature);
+            stats[1][w].add(now, humidity);
+            stats[2][w].add(now, pressure);
+        }
+    }
+
+    // Пачка показаний с одной отметкой времени
+    public void addBatch(float[] temperatures, float[] humidities, float[] pressures, int len) {
+        if (len == 0) return;
+        long now = clockMillis.getAsLong();
+        for (int w = 0; w < stats[0].length; w++) {
+            stats[0][w].addBatch(now, temperatures, len);
+            stats[1][w].addBatch(now, humidities, len);
+            stats[2][w].addBatch(now, pressures, len);
+        }
+    }
+
+    public StatsSummary summary(Channel channel, StatsWindow window) {
+        return stats[channel.ordinal()][window.ordinal()].summary(clockMillis.getAsLong());
+    }
+
+    // Отдельные показатели окна без построения сводки и без аллокаций
+    public long count(Channel channel, StatsWindow window) {
+        return stats[channel.ordinal()][window.ordinal()].count(clockMillis.getAsLong());
+    }
+
+    public double mean(Channel channel, StatsWindow window) {
+        return stats[channel.ordinal()][window.ordinal()].mean(clockMillis.getAsLong());
+    }
+
+    public float min(Channel channel, StatsWindow window) {
+        return stats[channel.ordinal()][window.ordinal()].min(clockMillis.getAsLong());
+    }
+
+    public float max(Channel channel, StatsWindow window) {
+        return stats[channel.ordinal()][window.ordinal()].max(clockMillis.getAsLong());
+    }
+
+    public float percentile(Channel channel, StatsWindow window, double q) {
+        return stats[channel.ordinal()][window.ordinal()].percentile(clockMillis.getAsLong(), q);
+    }
+}
+
+// Скользящее окно из SLICES долей времени. Каждая доля хранит count/sum/min/max
+// и гистограмму фиксированной точности в заранее выделенных примитивных массивах;
+// доля обнуляется, когда время переходит на нее по кругу. Память постоянна,
+// добавление - O(1) амортизированно (обнуление гистограммы раз в долю окна).
+class WindowedStats {
+    static final int SLICES = 12;
+    static final int BINS_PER_UNIT = 10;  // точность гистограммы 0.1
+
+    private final long sliceMillis;
+    private final float low;
+    private final int bins;
+    private final long[] epochs = new long[SLICES];  // абсолютный номер доли в ячейке
+    private final long[] counts = new long[SLICES];
+    private final double[] sums = new double[SLICES];
+    private final float[] mins = new float[SLICES];
+    private final float[] maxs = new float[SLICES];
+    private final int[][] histograms;
+    private final int[] window;  // сумма гистограмм всех долей, поддерживается при добавлении
+
+    WindowedStats(long windowMillis, float low, float high) {
+        this.sliceMillis = windowMillis / SLICES;
+        this.low = low;
+        this.bins = (int) Math.ceil((high - low) * BINS_PER_UNIT) + 1;
+        this.histograms = new int[SLICES][bins];
+        this.window = new int[bins];
+        Arrays.fill(epochs, Long.MIN_VALUE);
+    }
+
+    void add(long nowMillis, float value) {
+        int i = slice(nowMillis);
+        counts[i]++;
+        sums[i] += value;
+        if (value < mins[i]) mins[i] = value;
+        if (value > maxs[i]) maxs[i] = value;
+        int b = bin(value);
+        histograms[i][b]++;
+        window[b]++;
+    }
+
+    // min/max/сумма считаются векторными ядрами, гистограмма - поэлементно
+    void addBatch(long nowMillis, float[] values, int len) {
+        int i = slice(nowMillis);
+        MeasurementKernels kernels = MeasurementKernels.INSTANCE;
+        counts[i] += len;
+        sums[i] += kernels.sum(values, len);
+        mins[i] = Math.min(mins[i], kernels.min(values, len));
+        maxs[i] = Math.max(maxs[i], kernels.max(values, len));
+        int[] histogram = histograms[i];
+        for (int j = 0; j < len; j++) {
+            int b = bin(values[j]);
+            histogram[b]++;
+            window[b]++;
+        }
+    }
+
+    // Снимок окна; гистограмма копируется из накопленной суммы
+    StatsSummary summary(long nowMillis) {
+        expire(nowMillis);
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < SLICES; i++) {
+            count += counts[i];
+            sum += sums[i];
+        }
+        return new StatsSummary(count, sum, min(nowMillis), max(nowMillis), window.clone(), low);
+    }
+
+    long count(long nowMillis) {
+        expire(nowMillis);
+        long count = 0;
+        for (int i = 0; i < SLICES; i++) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    double mean(long nowMillis) {
+        expire(nowMillis);
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < SLICES; i++) {
+            count += counts[i];
+            sum += sums[i];
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    float min(long nowMillis) {
+        expire(nowMillis);
+        float min = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < SLICES; i++) {
+            if (counts[i] > 0) min = Math.min(min, mins[i]);
+        }
+        return min;
+    }
+
+    float max(long nowMillis) {
+        expire(nowMillis);
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < SLICES; i++) {
+            if (counts[i] > 0) max = Math.max(max, maxs[i]);
+        }
+        return max;
+    }
+
+    float percentile(long nowMillis, double q) {
+        expire(nowMillis);
+        long count = 0;
+        for (int i = 0; i < SLICES; i++) {
+            count += counts[i];
+        }
+        return StatsSummary.percentile(window, count, min(nowMillis), max(nowMillis), low, q);
+    }
+
+    // Обнуляет доли, вышедшие из окна, даже если новых показаний не было
+    private void expire(long nowMillis) {
+        long current = nowMillis / sliceMillis;
+        for (int i = 0; i < SLICES; i++) {
+            if (counts[i] > 0 && epochs[i] <= current - SLICES) {
+                clear(i);
+            }
+        }
+    }
+
+    private int slice(long nowMillis) {
+        long epoch = nowMillis / sliceMillis;
+        int i = (int) Math.floorMod(epoch, (long) SLICES);
+        if (epochs[i] != epoch) {
+            epochs[i] = epoch;
+            clear(i);
+        }
+        return i;
+    }
+
+    // Гистограмма доли вычитается из суммы окна раз за оборот доли
+    private void clear(int i) {
+        if (counts[i] > 0) {
+            int[] h = histograms[i];
+            for (int b = 0; b < bins; b++) {
+                window[b] -= h[b];
+            }
+            Arrays.fill(h, 0);
+        }
+        counts[i] = 0;
+        sums[i] = 0;
+        mins[i] = Float.POSITIVE_INFINITY;
+        maxs[i] = Float.NEGATIVE_INFINITY;
+    }
+
+    private int bin(float value) {
+        int b = Math.round((value - low) * BINS_PER_UNIT);
+        return Math.max(0, Math.min(bins - 1, b));
+    }
+}
+
+// Сводка по окну; гистограммы разных окон и станций можно складывать
+class StatsSummary {
+    private final long count;
+    private final double sum;
+    private final float min;
+    private final float max;
+    private final int[] histogram;
+    private final float low;
+
+    StatsSummary(long count, double sum, float min, float max, int[] histogram, float low) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.histogram = histogram;
+        this.low = low;
+    }
+
+    public long count() { return count; }
+    public float min() { return count == 0 ? Float.NaN : min; }
+    public float max() { return count == 0 ? Float.NaN : max; }
+    public double mean() { return count == 0 ? Double.NaN : sum / count; }
+
+    // Оценка перцентиля по гистограмме с точностью до шага гистограммы
+    public float percentile(double q) {
+        return percentile(histogram, count, min, max, low, q);
+    }
+
+    static float percentile(int[] histogram, long count, float min, float max, float low, double q) {
+        if (count == 0) return Float.NaN;
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            seen += histogram[b];
+            if (seen >= rank) {
+                float value = (float) (low + b / (double) WindowedStats.BINS_PER_UNIT);
+                return Math.max(min, Math.min(max, value));
+            }
+        }
+        return max;
+    }
+
+    public StatsSummary merge(StatsSummary other) {
+        int[] merged = histogram.clone();
+        for (int b = 0; b < merged.length; b++) {
+            merged[b] += other.histogram[b];
+        }
+        return new StatsSummary(count + other.count, sum + other.sum,
+                Math.min(min, other.min), Math.max(max, other.max), merged, low);
+    }
+}
+
+// 8. Конвейер приема данных от множества станций
+
+// Станции распределены по шардам; у каждого шарда свой заранее выделенный
+// кольцевой буфер с одним писателем и одним потребителем (как в Disruptor).
+// Потребитель забирает все опубликованные события за раз и раздает их
+// наблюдателям нужной станции, поэтому передача данных между потоками
+// стоит одну запись последовательности на пачку. Шарды не делят данных,
+// и пропускная способность растет с числом ядер.
+class WeatherIngestionPipeline implements AutoCloseable {
+    private final WeatherStation[] stations;
+    private final IngestionShard[] shards;
+    private final int shardMask;
+
+    public WeatherIngestionPipeline(int stationCount, int shardCount, int ringCapacity) {
+        stations = new WeatherStation[stationCount];
+        for (int i = 0; i < stationCount; i++) {
+            stations[i] = new WeatherStation();
+        }
+        int count = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+        shards = new IngestionShard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new IngestionShard(i, stations, ringCapacity);
+        }
+        shardMask = count - 1;
+    }
+
+    public WeatherStation station(int stationId) {
+        return stations[stationId];
+    }
+
+    public int shardOf(int stationId) {
+        return stationId & shardMask;
+    }
+
+    // Для каждого шарда публиковать должен ровно один поток
+    public void publish(int stationId, float temperature, float humidity, float pressure) {
+        if (stationId < 0 || stationId >= stations.length) {
+            throw new IllegalArgumentException("Unknown station: " + stationId);
+        }
+        shards[stationId & shardMask].publish(stationId, temperature, humidity, pressure);
+    }
+
+    // Показания, на которых наблюдатели станций бросили исключение
+    public long failedDeliveries() {
+        long failed = 0;
+        for (IngestionShard shard : shards) {
+            failed += shard.failed();
+        }
+        return failed;
+    }
+
+    // Дожидается обработки всего опубликованного и останавливает потребителей
+    @Override
+    public void close() {
+        for (IngestionShard shard : shards) {
+            shard.close();
+        }
+    }
+}
+
+class IngestionShard {
+    private static final int SPINS_BEFORE_PARK = 200;
+
+    private final WeatherStation[] stations;
+    private final int mask;
+    private final int[] stationIds;
+    private final float[] temperatures;
+    private final float[] humidities;
+    private final float[] pressures;
+    private final AtomicLong published = new AtomicLong(-1);  // последнее опубликованное событие
+    private final AtomicLong consumed = new AtomicLong(-1);   // последнее обработанное событие
+    private long nextSequence;      // только для писателя
+    private long cachedConsumed = -1; // кэш писателя, чтобы реже читать consumed
+    private volatile boolean running = true;
+    private volatile long failed;     // пишет только потребитель
+    private final Thread consumer;
+
+    IngestionShard(int index, WeatherStation[] stations, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.stations = stations;
+        this.mask = size - 1;
+        stationIds = new int[size];
+        temperatures = new float[size];
+        humidities = new float[size];
+        pressures = new float[size];
+        consumer = new Thread(this::consume, "ingestion-shard-" + index);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    void publish(int stationId, float temperature, float humidity, float pressure) {
+        long sequence = nextSequence;
+        // Буфер полон - ждем, пока потребитель освободит ячейку
+        while (sequence - cachedConsumed > mask + 1) {
+            cachedConsumed = consumed.get();
+            if (sequence - cachedConsumed > mask + 1) Thread.onSpinWait();
+        }
+        int i = (int) (sequence & mask);
+        stationIds[i] = stationId;
+        temperatures[i] = temperature;
+        humidities[i] = humidity;
+        pressures[i] = pressure;
+        published.lazySet(sequence);  // публикация после записи полей
+        nextSequence = sequence + 1;
+    }
+
+    private void consume() {
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            long available = published.get();
+            if (available < next) {
+                if (!running && published.get() < next) return;
+                if (++idle < SPINS_BEFORE_PARK) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(50_000);
+                }
+                continue;
+            }
+            idle = 0;
+            for (long sequence = next; sequence <= available; sequence++) {
+                int i = (int) (sequence & mask);
+                // Ошибка наблюдателя не должна останавливать потребителя шарда
+                try {
+                    stations[stationIds[i]].setMeasurements(temperatures[i], humidities[i], pressures[i]);
+                } catch (RuntimeException e) {
+                    failed++;
+                }
+            }
+            consumed.lazySet(available);
+            next = available + 1;
+        }
+    }
+
+    long failed() {
+        return failed;
+    }
+
+    void close() {
+        running = false;
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// 9. Журнал показаний и воспроизведение
+
+// Формат файла: заголовок (MAGIC, VERSION, время начала записи в мс от эпохи),
+// затем записи фиксированной длины: смещение от начала в нс и три float.
+// Наблюдатель пишет записи в буфер и сбрасывает его в файл целыми блоками.
+class MeasurementLogObserver implements Observer, AutoCloseable {
+    static final int MAGIC = 0x574c4f47;  // "WLOG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 4096);
+    private final long startNanos;
+
+    public MeasurementLogObserver(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        startNanos = System.nanoTime();
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized void update(float temperature, float humidity, float pressure) {
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        buffer.putLong(System.nanoTime() - startNanos)
+                .putFloat(temperature).putFloat(humidity).putFloat(pressure);
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.force(false);
+        channel.close();
+    }
+}
+
+// Темп воспроизведения журнала
+enum ReplayPace {
+    RECORDED,            // с исходными интервалами между показаниями
+    AS_FAST_AS_POSSIBLE  // без пауз, для замера пропускной способности
+}
+
+// Итог воспроизведения
+class ReplayResult {
+    private final long readings;
+    private final long elapsedNanos;
+
+    ReplayResult(long readings, long elapsedNanos) {
+        this.readings = readings;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long readings() {
+        return readings;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long readingsPerSecond() {
+        return readings * 1_000_000_000L / Math.max(1, elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "Воспроизведено " + readings + " показаний за " + elapsedNanos / 1_000_000 + " мс ("
+                + readingsPerSecond() + " в секунду)";
+    }
+}
+
+// Отображает журнал в память частями и передает показания станции через
+// setMeasurements, то есть по всей цепочке наблюдателей. В кучу файл
+// не загружается; неполная последняя запись (оборванная запись) пропускается.
+class MeasurementReplayer {
+    private static final long CHUNK_SIZE = (long) MeasurementLogObserver.RECORD_SIZE * (1 << 20);
+    private static final int BATCH_SIZE = 1024;
+
+    private final Path file;
+    private final long startMillis;
+    private long recordedNanos;  // смещение текущего показания, для recordedClock
+
+    public MeasurementReplayer(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(MeasurementLogObserver.HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // читаем заголовок целиком
+            }
+            header.flip();
+            if (header.remaining() < MeasurementLogObserver.HEADER_SIZE
+                    || header.getInt() != MeasurementLogObserver.MAGIC
+                    || header.getInt() != MeasurementLogObserver.VERSION) {
+                throw new IOException("Not a measurement log: " + file);
+            }
+            startMillis = header.getLong();
+        }
+    }
+
+    // Часы записанного времени: во время воспроизведения возвращают момент,
+    // когда было снято текущее показание. Годятся для StreamingStatistics,
+    // чтобы восстановить окна так, как они выглядели при записи. При
+    // воспроизведении пачками часы показывают время последнего показания пачки.
+    public LongSupplier recordedClock() {
+        return () -> startMillis + recordedNanos / 1_000_000;
+    }
+
+    public ReplayResult replay(WeatherStation station, ReplayPace pace) throws IOException {
+        long count = 0;
+        long begin = System.nanoTime();
+        float[] temperatures = new float[BATCH_SIZE];
+        float[] humidities = new float[BATCH_SIZE];
+        float[] pressures = new float[BATCH_SIZE];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long records = (channel.size() - MeasurementLogObserver.HEADER_SIZE) / MeasurementLogObserver.RECORD_SIZE;
+            long end = MeasurementLogObserver.HEADER_SIZE + records * MeasurementLogObserver.RECORD_SIZE;
+            for (long position = MeasurementLogObserver.HEADER_SIZE; position < end; position += CHUNK_SIZE) {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(CHUNK_SIZE, end - position));
+                if (pace == ReplayPace.AS_FAST_AS_POSSIBLE) {
+                    count += replayBatches(chunk, station, temperatures, humidities, pressures);
+                    continue;
+                }
+                while (chunk.hasRemaining()) {
+                    long offsetNanos = chunk.getLong();
+                    float temperature = chunk.getFloat();
+                    float humidity = chunk.getFloat();
+                    float pressure = chunk.getFloat();
+                    long wait;
+                    while ((wait = begin + offsetNanos - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    recordedNanos = offsetNanos;
+                    station.setMeasurements(temperature, humidity, pressure);
+                    count++;
+                }
+            }
+        }
+        return new ReplayResult(count, System.nanoTime() - begin);
+    }
+
+    // Без пауз показания передаются станции пачками через пакетный setMeasurements
+    private long replayBatches(ByteBuffer chunk, WeatherStation station,
+                               float[] temperatures, float[] humidities, float[] pressures) {
+        long count = 0;
+        while (chunk.hasRemaining()) {
+            int n = 0;
+            while (n < BATCH_SIZE && chunk.hasRemaining()) {
+                recordedNanos = chunk.getLong();
+                temperatures[n] = chunk.getFloat();
+                humidities[n] = chunk.getFloat();
+                pressures[n] = chunk.getFloat();
+                n++;
+            }
+            station.setMeasurements(temperatures, humidities, pressures, n);
+            count += n;
+        }
+        return count;
+    }
+}
+
+// 10. Отрисовка дисплеев с ограничением частоты
+
+// Поток отрисовки: раз в период собирает измененные дисплеи в один
+// переиспользуемый StringBuilder, кодирует его переиспользуемым
+// CharsetEncoder в прямой буфер и пишет в канал одной пачкой.
+// После прогрева кадр не создает новых буферов.
+class DisplayRenderer implements AutoCloseable {
+    private final WritableByteChannel out;
+    private final long periodNanos;
+    private final AtomicReference<RenderedDisplay[]> displays = new AtomicReference<>(new RenderedDisplay[0]);
+    private final StringBuilder frame = new StringBuilder(256);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(8192);
+    private CharBuffer chars = CharBuffer.allocate(256);
+    private volatile boolean closed;
+    private final Thread thread;
+
+    public DisplayRenderer(WritableByteChannel out, int maxFramesPerSecond) {
+        if (maxFramesPerSecond <= 0) {
+            throw new IllegalArgumentException("maxFramesPerSecond must be positive");
+        }
+        this.out = out;
+        this.periodNanos = 1_000_000_000L / maxFramesPerSecond;
+        thread = Thread.ofVirtual().name("display-renderer").start(this::run);
+    }
+
+    // Вывод в стандартный поток минуя System.out; канал не закрывается вместе с рендерером
+    public static DisplayRenderer toStandardOutput(int maxFramesPerSecond) {
+        return new DisplayRenderer(new FileOutputStream(FileDescriptor.out).getChannel(), maxFramesPerSecond);
+    }
+
+    public void attach(RenderedDisplay display) {
+        RenderedDisplay[] current;
+        RenderedDisplay[] next;
+        do {
+            current = displays.get();
+            next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = display;
+        } while (!displays.compareAndSet(current, next));
+        display.attach(this);
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (!closed) {
+            next += periodNanos;
+            long wait;
+            while (!closed && (wait = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            renderFrame();
+        }
+    }
+
+    private void renderFrame() {
+        frame.setLength(0);
+        RenderedDisplay[] snapshot = displays.get();
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i].renderIfDirty(frame);
+        }
+        if (frame.length() > 0) {
+            write(frame);
+        }
+    }
+
+    private void write(StringBuilder text) {
+        if (chars.capacity() < text.length()) {
+            chars = CharBuffer.allocate(Math.max(text.length(), chars.capacity() * 2));
+        }
+        chars.clear();
+        text.getChars(0, text.length(), chars.array(), 0);
+        chars.limit(text.length());
+        encoder.reset();
+        try {
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, true);
+                if (result.isOverflow() || !chars.hasRemaining()) {
+                    if (!chars.hasRemaining()) encoder.flush(bytes);
+                    bytes.flip();
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                    bytes.clear();
+                }
+            } while (result.isOverflow());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Останавливает поток, выводит последний кадр и отключает дисплеи
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        renderFrame();
+        for (RenderedDisplay display : displays.getAndSet(new RenderedDisplay[0])) {
+            display.attach(null);
         }
     }
 }
\ No newline at end of file
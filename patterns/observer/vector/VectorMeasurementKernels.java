@@ -0,0 +1,74 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Агрегаты по массивам показаний на Vector API. Лежит вне основного
+// набора исходников, так как требует модуль jdk.incubator.vector:
+//   javac --add-modules jdk.incubator.vector -encoding UTF-8 -d out *.java vector/*.java
+//   java --add-modules jdk.incubator.vector -cp out ObserverPatternDemo
+// Без этого каталога сборка обычная, и MeasurementKernels выберет скалярную реализацию.
+class VectorMeasurementKernels implements MeasurementKernels {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    // Частичные суммы копятся во float не дольше блока, затем переносятся в double
+    private static final int SUM_BLOCK = 1024;
+
+    @Override
+    public float min(float[] values, int len) {
+        int i = 0;
+        float result = Float.POSITIVE_INFINITY;
+        int bound = SPECIES.loopBound(len);
+        if (bound > 0) {
+            FloatVector acc = FloatVector.broadcast(SPECIES, Float.POSITIVE_INFINITY);
+            for (; i < bound; i += SPECIES.length()) {
+                acc = acc.min(FloatVector.fromArray(SPECIES, values, i));
+            }
+            result = acc.reduceLanes(VectorOperators.MIN);
+        }
+        for (; i < len; i++) {
+            result = Math.min(result, values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public float max(float[] values, int len) {
+        int i = 0;
+        float result = Float.NEGATIVE_INFINITY;
+        int bound = SPECIES.loopBound(len);
+        if (bound > 0) {
+            FloatVector acc = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+            for (; i < bound; i += SPECIES.length()) {
+                acc = acc.max(FloatVector.fromArray(SPECIES, values, i));
+            }
+            result = acc.reduceLanes(VectorOperators.MAX);
+        }
+        for (; i < len; i++) {
+            result = Math.max(result, values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public double sum(float[] values, int len) {
+        double result = 0;
+        int i = 0;
+        int bound = SPECIES.loopBound(len);
+        while (i < bound) {
+            int blockEnd = Math.min(bound, i + SUM_BLOCK);
+            FloatVector acc = FloatVector.zero(SPECIES);
+            for (; i < blockEnd; i += SPECIES.length()) {
+                acc = acc.add(FloatVector.fromArray(SPECIES, values, i));
+            }
+            result += acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < len; i++) {
+            result += values[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "vector(" + SPECIES.length() + " x float)";
+    }
+}
\ No newline at end of file
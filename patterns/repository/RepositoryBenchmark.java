@@ -0,0 +1,249 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.Supplier;
+
+// Набор микробенчмарков слоя репозиториев.
+// Запуск:
+//   javac -encoding UTF-8 -d out *.java
+//   java -Xmx8g -cp out RepositoryBenchmark [--sizes 1000,100000,10000000] [--threads 4]
+//        [--warmup 3] [--iterations 5] [--time 500] [--impl hash,concurrent]
+//
+// Режим как у JMH throughput: каждая итерация длится --time мс, операции идут
+// пачками, после прогрева считается среднее по итерациям. Для каждой операции
+// печатаются нс/оп, оп/с, байты аллокаций на операцию (аналог gc.alloc.rate.norm
+// из GC-профилировщика JMH, по ThreadMXBean) и число сборок мусора за замер.
+public class RepositoryBenchmark {
+
+    private static final int BATCH = 64;
+    private static volatile long sink;  // не дает JIT выбросить результаты
+
+    // Измеряемая операция над репозиторием; i - номер вызова в итерации
+    interface Operation {
+        long run(RepositoryPatternExample.UserRepository repository, int i);
+    }
+
+    // Состояние одного прогона: заполненный репозиторий и живые id
+    static final class Fixture {
+        final RepositoryPatternExample.UserRepository repository;
+        final Long[] ids;  // заранее упакованы, чтобы не мерить аллокации Long.valueOf
+        final RepositoryPatternExample.User[] newUsers;
+        final RepositoryPatternExample.User[] updates;
+
+        Fixture(RepositoryPatternExample.UserRepository repository, int size) {
+            this.repository = repository;
+            this.ids = new Long[size];
+            List<RepositoryPatternExample.User> batch = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                batch.add(new RepositoryPatternExample.User(null, "user-" + i, "user" + i + "@example.com"));
+            }
+            List<RepositoryPatternExample.User> saved = repository.saveAll(batch);
+            for (int i = 0; i < size; i++) {
+                ids[i] = saved.get(i).getId();
+            }
+            // Перемешиваем, чтобы обращения не шли подряд по памяти
+            Random random = new Random(42);
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                Long tmp = ids[i];
+                ids[i] = ids[j];
+                ids[j] = tmp;
+            }
+            newUsers = new RepositoryPatternExample.User[4096];
+            updates = new RepositoryPatternExample.User[4096];
+            for (int i = 0; i < newUsers.length; i++) {
+                newUsers[i] = new RepositoryPatternExample.User(null, "new-" + i, "new" + i + "@example.com");
+                Long id = ids[i % size];
+                updates[i] = new RepositoryPatternExample.User(id, "renamed-" + id, "renamed" + id + "@example.com");
+            }
+        }
+
+        int slot(int i) {
+            return (int) ((i & 0x7fffffffL) % ids.length);
+        }
+
+        Long id(int i) {
+            return ids[slot(i)];
+        }
+    }
+
+    static final class Result {
+        final double nsPerOp;
+        final double bytesPerOp;
+        final long gcCount;
+
+        Result(double nsPerOp, double bytesPerOp, long gcCount) {
+            this.nsPerOp = nsPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1_000, 100_000, 10_000_000};
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int warmup = 3;
+        int iterations = 5;
+        long iterationMillis = 500;
+        List<String> impls = List.of("in-memory", "hash", "concurrent", "off-heap");
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--sizes" -> {
+                    String[] parts = args[i + 1].split(",");
+                    sizes = new int[parts.length];
+                    for (int j = 0; j < parts.length; j++) sizes[j] = Integer.parseInt(parts[j].trim());
+                }
+                case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+                case "--warmup" -> warmup = Integer.parseInt(args[i + 1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+                case "--time" -> iterationMillis = Long.parseLong(args[i + 1]);
+                case "--impl" -> impls = List.of(args[i + 1].split(","));
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.printf("%-12s %10s %7s %-12s %12s %14s %10s %6s%n",
+                "impl", "size", "threads", "op", "ns/op", "ops/s", "B/op", "gc");
+        for (String impl : impls) {
+            for (int size : sizes) {
+                for (String op : List.of("insert", "save", "findById", "existsById", "deleteById", "findAll")) {
+                    String name = impl;
+                    int n = size;
+                    Supplier<Fixture> setup = () -> new Fixture(create(name, n), n);
+                    Result r = measure(setup, op, 1, warmup, iterations, iterationMillis);
+                    print(impl, size, 1, op, r);
+                    // Конкурентный режим - только для потокобезопасной реализации
+                    if (impl.equals("concurrent")) {
+                        r = measure(setup, op, threads, warmup, iterations, iterationMillis);
+                        print(impl, size, threads, op, r);
+                    }
+                }
+            }
+        }
+    }
+
+    static RepositoryPatternExample.UserRepository create(String impl, int size) {
+        Supplier<RepositoryPatternExample.UserRepository> factory = switch (impl) {
+            case "in-memory" -> RepositoryPatternExample.InMemoryUserRepository::new;
+            case "hash" -> () -> new RepositoryPatternExample.HashIndexedUserRepository(size);
+            case "concurrent" -> RepositoryPatternExample.ConcurrentUserRepository::new;
+            case "off-heap" -> () -> new RepositoryPatternExample.OffHeapUserRepository(size, 1 << 20);
+            default -> throw new IllegalArgumentException("Unknown implementation: " + impl);
+        };
+        return factory.get();
+    }
+
+    static Operation operation(String name, Fixture fixture) {
+        return switch (name) {
+            // Вставка новых пользователей: репозиторий растет, поэтому
+            // для этой операции он пересоздается перед каждой итерацией
+            case "insert" -> (repository, i) -> repository.save(fixture.newUsers[i & 4095]).getId();
+            // save существующего пользователя (ветка обновления)
+            case "save" -> (repository, i) -> repository.save(fixture.updates[i & 4095]).getVersion();
+            case "findById" -> (repository, i) -> repository.findById(fixture.id(i)).isPresent() ? 1 : 0;
+            case "existsById" -> (repository, i) -> repository.existsById(fixture.id(i)) ? 1 : 0;
+            // Вместо удаленной записи сразу вставляется новая, чтобы размер
+            // не менялся; в замер попадает пара deleteById + save
+            case "deleteById" -> (repository, i) -> {
+                int slot = fixture.slot(i);
+                repository.deleteById(fixture.ids[slot]);
+                RepositoryPatternExample.User saved = repository.save(fixture.newUsers[i & 4095]);
+                fixture.ids[slot] = saved.getId();
+                return saved.getId();
+            };
+            case "findAll" -> (repository, i) -> repository.findAll().size();
+            default -> throw new IllegalArgumentException("Unknown operation: " + name);
+        };
+    }
+
+    // Каждый поток выполняет пачки операций, пока не истечет время итерации.
+    // Подготовка состояния (аналог @Setup) в замер не входит.
+    static Result measure(Supplier<Fixture> setup, String opName, int threads, int warmup, int iterations,
+                          long iterationMillis) throws Exception {
+        boolean freshPerIteration = opName.equals("insert");
+        Fixture fixture = null;
+        double nsTotal = 0;
+        double bytesTotal = 0;
+        long gcCount = 0;
+        for (int i = 0; i < warmup + iterations; i++) {
+            if (fixture == null || freshPerIteration) {
+                fixture = null;  // отпускаем прежний репозиторий до создания нового
+                fixture = setup.get();
+            }
+            Operation op = operation(opName, fixture);
+            long gcBefore = gcCount();
+            long[] stats = runIteration(fixture, op, threads, iterationMillis, i);
+            if (i < warmup) continue;
+            nsTotal += (double) stats[0] * threads / stats[1];
+            bytesTotal += (double) stats[2] / stats[1];
+            gcCount += gcCount() - gcBefore;
+        }
+        return new Result(nsTotal / iterations, bytesTotal / iterations, gcCount);
+    }
+
+    // Возвращает {время итерации в нс, число операций, байты аллокаций}
+    static long[] runIteration(Fixture fixture, Operation op, int threads, long iterationMillis, int seed)
+            throws Exception {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ops = new long[threads];
+        long[] allocated = new long[threads];
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+                long tid = Thread.currentThread().threadId();
+                long bytesBefore = mx.getThreadAllocatedBytes(tid);
+                int i = (seed * 31 + worker) * 1_000_003;
+                long count = 0;
+                long acc = 0;
+                do {
+                    for (int b = 0; b < BATCH; b++) {
+                        acc += op.run(fixture.repository, i++);
+                    }
+                    count += BATCH;
+                } while (System.nanoTime() < deadline);
+                allocated[worker] = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+                ops[worker] = count;
+                sink += acc;
+            });
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        long totalOps = 0;
+        long totalBytes = 0;
+        for (int t = 0; t < threads; t++) {
+            totalOps += ops[t];
+            totalBytes += allocated[t];
+        }
+        return new long[] {elapsed, totalOps, totalBytes};
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    static void print(String impl, int size, int threads, String op, Result r) {
+        System.out.printf("%-12s %10d %7d %-12s %12.1f %14.0f %10.1f %6d%n",
+                impl, size, threads, op, r.nsPerOp, 1e9 / r.nsPerOp * threads, r.bytesPerOp, r.gcCount);
+    }
+}
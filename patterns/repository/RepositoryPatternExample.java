@@ -1,6 +1,42 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
 
 public class RepositoryPatternExample {
 
@@ -9,6 +45,7 @@ public class RepositoryPatternExample {
         private Long id;
         private String name;
         private String email;
+        private long version;  // растет при каждом изменении записи в репозитории
 
         public User(Long id, String name, String email) {
             this.id = id;
@@ -16,10 +53,16 @@ public class RepositoryPatternExample {
             this.email = email;
         }
 
+        User(Long id, String name, String email, long version) {
+            this(id, name, email);
+            this.version = version;
+        }
+
         // Геттеры и сеттеры
         public Long getId() { return id; }
         public String getName() { return name; }
         public String getEmail() { return email; }
+        public long getVersion() { return version; }
 
         @Override
         public String toString() {
@@ -34,11 +77,144 @@ public class RepositoryPatternExample {
         List<User> findAll();
         void deleteById(Long id);
         boolean existsById(Long id);
+
+        // Поиск по вторичным ключам; без индексов - полный перебор
+        default Optional<User> findByEmail(String email) {
+            return findAll().stream()
+                    .filter(user -> Objects.equals(user.getEmail(), email))
+                    .findFirst();
+        }
+
+        default List<User> findByNamePrefix(String prefix) {
+            List<User> result = new ArrayList<>();
+            for (User user : findAll()) {
+                if (user.getName() != null && user.getName().startsWith(prefix)) {
+                    result.add(user);
+                }
+            }
+            return result;
+        }
+
+        // Пакетные операции: результаты в порядке входной коллекции;
+        // по умолчанию - поэлементно
+        default List<User> saveAll(Collection<User> users) {
+            List<User> result = new ArrayList<>(users.size());
+            for (User user : users) {
+                result.add(save(user));
+            }
+            return result;
+        }
+
+        // Ненайденные id пропускаются
+        default List<User> findAllById(Collection<Long> ids) {
+            List<User> result = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                findById(id).ifPresent(result::add);
+            }
+            return result;
+        }
+
+        default void deleteAllById(Collection<Long> ids) {
+            for (Long id : ids) {
+                deleteById(id);
+            }
+        }
+
+        // Изменение записи на месте: mutator получает текущее состояние и
+        // возвращает новые имя и email; id сохраняется, версия увеличивается.
+        // По умолчанию - findById + save, без атомарности.
+        default User update(Long id, UnaryOperator<User> mutator) {
+            User current = findById(id).orElseThrow(() -> new IllegalArgumentException("User not found"));
+            User changed = mutator.apply(current);
+            return save(new User(id, changed.getName(), changed.getEmail()));
+        }
+
+        // Ленивый обход всех пользователей; по умолчанию - поверх копии findAll
+        default Stream<User> stream() {
+            return findAll().stream();
+        }
+
+        // Постраничная выборка по ключу: до limit пользователей с id > afterId
+        // (afterId = null - с начала) по возрастанию id
+        default List<User> findPage(Long afterId, int limit) {
+            return stream()
+                    .filter(user -> afterId == null || user.getId() > afterId)
+                    .sorted((a, b) -> Long.compare(a.getId(), b.getId()))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Сплитератор по строкам хранилища без копирования: строки читаются
+    // по номеру, пустые (удаленные) пропускаются, диапазон делится пополам
+    // для параллельных потоков. Изменение структуры во время обхода -
+    // ConcurrentModificationException, как у ArrayList.
+    static final class RowSpliterator implements Spliterator<User> {
+        private final IntFunction<User> row;
+        private final IntSupplier modCount;
+        private final int expectedModCount;
+        private int origin;
+        private final int fence;
+
+        RowSpliterator(IntFunction<User> row, IntSupplier modCount, int origin, int fence) {
+            this.row = row;
+            this.modCount = modCount;
+            this.expectedModCount = modCount.getAsInt();
+            this.origin = origin;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super User> action) {
+            while (origin < fence) {
+                User user = row.apply(origin++);
+                checkForComodification();
+                if (user != null) {
+                    action.accept(user);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super User> action) {
+            for (; origin < fence; origin++) {
+                User user = row.apply(origin);
+                if (user != null) action.accept(user);
+            }
+            checkForComodification();
+        }
+
+        @Override
+        public Spliterator<User> trySplit() {
+            int mid = (origin + fence) >>> 1;
+            if (mid - origin < 1024) return null;
+            RowSpliterator prefix = new RowSpliterator(row, modCount, origin, mid);
+            origin = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - origin;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | DISTINCT;
+        }
+
+        private void checkForComodification() {
+            if (modCount.getAsInt() != expectedModCount) {
+                throw new java.util.ConcurrentModificationException();
+            }
+        }
     }
 
     // Реализация репозитория (в памяти для примера)
     static class InMemoryUserRepository implements UserRepository {
-        private final List<User> users = new ArrayList<>();
+        private final ArrayList<User> users = new ArrayList<>();
         private Long currentId = 1L;
 
         @Override
@@ -56,6 +232,7 @@ public class RepositoryPatternExample {
                         .map(existingUser -> {
                             existingUser.name = user.getName();
                             existingUser.email = user.getEmail();
+                            existingUser.version++;
                             return existingUser;
                         })
                         .orElseThrow(() -> new IllegalArgumentException("User not found"));
@@ -83,55 +260,2002 @@ public class RepositoryPatternExample {
         public boolean existsById(Long id) {
             return users.stream().anyMatch(user -> user.getId().equals(id));
         }
+
+        // Пакет обновлений проверяется целиком одним проходом по списку,
+        // и только потом применяется
+        @Override
+        public List<User> saveAll(Collection<User> batch) {
+            Map<Long, User> existing = new HashMap<>();
+            for (User user : batch) {
+                if (user.getId() != null) existing.put(user.getId(), null);
+            }
+            if (!existing.isEmpty()) {
+                for (User u : users) {
+                    if (existing.containsKey(u.getId())) existing.put(u.getId(), u);
+                }
+                if (existing.containsValue(null)) {
+                    throw new IllegalArgumentException("User not found");
+                }
+            }
+            users.ensureCapacity(users.size() + batch.size() - existing.size());
+            List<User> result = new ArrayList<>(batch.size());
+            for (User user : batch) {
+                if (user.getId() == null) {
+                    User newUser = new User(currentId++, user.getName(), user.getEmail());
+                    users.add(newUser);
+                    result.add(newUser);
+                } else {
+                    User existingUser = existing.get(user.getId());
+                    existingUser.name = user.getName();
+                    existingUser.email = user.getEmail();
+                    existingUser.version++;
+                    result.add(existingUser);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<User> findAllById(Collection<Long> ids) {
+            Map<Long, User> found = new HashMap<>();
+            for (Long id : ids) {
+                found.put(id, null);
+            }
+            for (User u : users) {
+                if (found.containsKey(u.getId())) found.put(u.getId(), u);
+            }
+            List<User> result = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                User user = found.get(id);
+                if (user != null) result.add(user);
+            }
+            return result;
+        }
+
+        @Override
+        public void deleteAllById(Collection<Long> ids) {
+            Set<Long> doomed = new java.util.HashSet<>(ids);
+            users.removeIf(user -> doomed.contains(user.getId()));
+        }
+
+        @Override
+        public Stream<User> stream() {
+            return users.stream();
+        }
+
+        // Один проход по списку вместо findById + save
+        @Override
+        public User update(Long id, UnaryOperator<User> mutator) {
+            for (User existingUser : users) {
+                if (existingUser.getId().equals(id)) {
+                    User changed = mutator.apply(existingUser);
+                    existingUser.name = changed.getName();
+                    existingUser.email = changed.getEmail();
+                    existingUser.version++;
+                    return existingUser;
+                }
+            }
+            throw new IllegalArgumentException("User not found");
+        }
+
+        // id выдаются по возрастанию, поэтому список отсортирован по id
+        // и начало страницы находится двоичным поиском
+        @Override
+        public List<User> findPage(Long afterId, int limit) {
+            int lo = 0;
+            int hi = users.size();
+            while (afterId != null && lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (users.get(mid).getId() <= afterId) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return new ArrayList<>(users.subList(lo, lo + Math.min(users.size() - lo, limit)));
+        }
     }
 
-    // Сервисный слой (бизнес-логика)
-    static class UserService {
-        private final UserRepository userRepository;
+    // Хеш-таблица с открытой адресацией: примитивный ключ long -> позиция int.
+    // Ключ 0 зарезервирован под пустую ячейку (идентификаторы начинаются с 1).
+    static final class LongIntHashMap {
+        static final int MISSING = -1;
 
-        public UserService(UserRepository userRepository) {
-            this.userRepository = userRepository;
+        private long[] keys;
+        private int[] values;
+        private int size;
+        private int mask;
+
+        LongIntHashMap(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
         }
 
-        public User registerUser(String name, String email) {
-            User newUser = new User(null, name, email);
-            return userRepository.save(newUser);
+        // Ключ 0 означает пустую ячейку, поэтому его в таблице быть не может
+        int get(long key) {
+            if (key == 0) return MISSING;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) return values[i];
+                if (k == 0) return MISSING;
+            }
         }
 
-        public User updateUserEmail(Long userId, String newEmail) {
-            User user = userRepository.findById(userId)
-                    .orElseThrow(() -> new IllegalArgumentException("User not found"));
-            
-            User updatedUser = new User(user.getId(), user.getName(), newEmail);
-            return userRepository.save(updatedUser);
+        void put(long key, int value) {
+            if (key == 0) throw new IllegalArgumentException("Key 0 is reserved");
+            int i = slot(key, mask);
+            for (; keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++size > (mask + 1) * 3 / 4) {
+                rehash((mask + 1) << 1);
+            }
         }
 
-        public List<User> getAllUsers() {
-            return userRepository.findAll();
+        int remove(long key) {
+            if (key == 0) return MISSING;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == 0) return MISSING;
+                if (k == key) {
+                    int removed = values[i];
+                    shiftBack(i);
+                    size--;
+                    return removed;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            java.util.Arrays.fill(keys, 0L);
+            size = 0;
+        }
+
+        // Заранее расширяет таблицу, чтобы пакетная вставка обошлась без rehash
+        void ensureCapacity(int expectedSize) {
+            if (expectedSize > (mask + 1) * 3 / 4) {
+                rehash(Integer.highestOneBit(expectedSize * 4 / 3) << 1);
+            }
+        }
+
+        // Удаление без "надгробий": сдвигаем назад элементы той же цепочки пробирования
+        private void shiftBack(int hole) {
+            for (int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                int home = slot(keys[i], mask);
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = 0;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                long k = oldKeys[j];
+                if (k == 0) continue;
+                int i = slot(k, mask);
+                while (keys[i] != 0) i = (i + 1) & mask;
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+
+        static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
         }
     }
 
-    public static void main(String[] args) {
-        // Создаем репозиторий
-        UserRepository userRepository = new InMemoryUserRepository();
-        
-        // Создаем сервис, инжектируя репозиторий
-        UserService userService = new UserService(userRepository);
+    // Реализация репозитория с хеш-индексом по id: точечные операции за O(1).
+    // Пользователи лежат в плотном массиве в порядке вставки, индекс хранит их позиции.
+    static class HashIndexedUserRepository implements UserRepository {
+        private User[] entries;
+        private int tail;   // первая свободная позиция в entries
+        private int size;   // число живых записей (tail - size = "дыры" после удаления)
+        private int modCount;
+        private final LongIntHashMap positions;
+        private long currentId = 1L;
 
-        // Регистрируем пользователей
-        User user1 = userService.registerUser("Иван Иванов", "ivan@example.com");
-        User user2 = userService.registerUser("Петр Петров", "petr@example.com");
+        public HashIndexedUserRepository() {
+            this(16);
+        }
 
-        System.out.println("Зарегистрированные пользователи:");
-        userService.getAllUsers().forEach(System.out::println);
+        public HashIndexedUserRepository(int expectedSize) {
+            entries = new User[Math.max(4, expectedSize)];
+            positions = new LongIntHashMap(expectedSize);
+        }
 
-        // Обновляем email пользователя
-        User updatedUser = userService.updateUserEmail(user1.getId(), "ivan.new@example.com");
-        System.out.println("\nПосле обновления email:");
-        System.out.println(updatedUser);
+        @Override
+        public User save(User user) {
+            if (user.getId() == null) {
+                // Новый пользователь
+                User newUser = new User(currentId++, user.getName(), user.getEmail());
+                append(newUser);
+                return newUser;
+            }
+            // Обновление существующего
+            int pos = positions.get(user.getId());
+            if (pos == LongIntHashMap.MISSING) {
+                throw new IllegalArgumentException("User not found");
+            }
+            User existingUser = entries[pos];
+            existingUser.name = user.getName();
+            existingUser.email = user.getEmail();
+            existingUser.version++;
+            return existingUser;
+        }
 
-        // Получаем всех пользователей
-        System.out.println("\nТекущий список пользователей:");
-        userService.getAllUsers().forEach(System.out::println);
+        // Запись находится одним обращением к хеш-индексу
+        @Override
+        public User update(Long id, UnaryOperator<User> mutator) {
+            User existingUser = get(id);
+            if (existingUser == null) {
+                throw new IllegalArgumentException("User not found");
+            }
+            User changed = mutator.apply(existingUser);
+            existingUser.name = changed.getName();
+            existingUser.email = changed.getEmail();
+            existingUser.version++;
+            return existingUser;
+        }
+
+        @Override
+        public Optional<User> findById(Long id) {
+            return Optional.ofNullable(get(id));
+        }
+
+        @Override
+        public List<User> findAll() {
+            List<User> result = new ArrayList<>(size);
+            for (int i = 0; i < tail; i++) {
+                if (entries[i] != null) result.add(entries[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public void deleteById(Long id) {
+            if (id == null) return;
+            int pos = positions.remove(id);
+            if (pos == LongIntHashMap.MISSING) return;
+            entries[pos] = null;
+            size--;
+            modCount++;
+            // Когда дыр больше половины - уплотняем массив, сохраняя порядок вставки
+            if (tail > 16 && tail - size > tail / 2) {
+                compact();
+            }
+        }
+
+        @Override
+        public boolean existsById(Long id) {
+            return id != null && positions.get(id) != LongIntHashMap.MISSING;
+        }
+
+        @Override
+        public List<User> saveAll(Collection<User> batch) {
+            // Проверяем весь пакет до изменений: либо применяется целиком, либо никак
+            int added = 0;
+            for (User user : batch) {
+                if (user.getId() == null) {
+                    added++;
+                } else if (positions.get(user.getId()) == LongIntHashMap.MISSING) {
+                    throw new IllegalArgumentException("User not found");
+                }
+            }
+            if (tail + added > entries.length) {
+                entries = java.util.Arrays.copyOf(entries, tail + added);
+            }
+            positions.ensureCapacity(size + added);
+            List<User> result = new ArrayList<>(batch.size());
+            for (User user : batch) {
+                result.add(save(user));
+            }
+            return result;
+        }
+
+        @Override
+        public List<User> findAllById(Collection<Long> ids) {
+            List<User> result = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                User user = get(id);
+                if (user != null) result.add(user);
+            }
+            return result;
+        }
+
+        @Override
+        public void deleteAllById(Collection<Long> ids) {
+            // Уплотнение - один раз в конце пакета, а не после каждого удаления
+            for (Long id : ids) {
+                if (id == null) continue;
+                int pos = positions.remove(id);
+                if (pos == LongIntHashMap.MISSING) continue;
+                entries[pos] = null;
+                size--;
+            }
+            modCount++;
+            if (tail > 16 && tail - size > tail / 2) {
+                compact();
+            }
+        }
+
+        @Override
+        public Stream<User> stream() {
+            return StreamSupport.stream(new RowSpliterator(i -> entries[i], () -> modCount, 0, tail), false);
+        }
+
+        // Порядок вставки совпадает с порядком id, поэтому начало страницы
+        // ищется двоичным поиском; "дыры" пропускаются вправо
+        @Override
+        public List<User> findPage(Long afterId, int limit) {
+            int lo = 0;
+            int hi = tail;
+            while (afterId != null && lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int m = mid;
+                while (m < hi && entries[m] == null) m++;
+                if (m == hi) {
+                    hi = mid;
+                } else if (entries[m].getId() <= afterId) {
+                    lo = m + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            List<User> page = new ArrayList<>(Math.min(limit, size));
+            for (int i = lo; i < tail && page.size() < limit; i++) {
+                if (entries[i] != null) page.add(entries[i]);
+            }
+            return page;
+        }
+
+        // Поиск без аллокаций (без Optional)
+        User get(Long id) {
+            if (id == null) return null;
+            int pos = positions.get(id);
+            return pos == LongIntHashMap.MISSING ? null : entries[pos];
+        }
+
+        // Восстановление записи с известным id (загрузка снимка, проигрывание журнала)
+        void restore(long id, String name, String email) {
+            int pos = positions.get(id);
+            if (pos == LongIntHashMap.MISSING) {
+                append(new User(id, name, email));
+            } else {
+                entries[pos].name = name;
+                entries[pos].email = email;
+            }
+            if (id >= currentId) currentId = id + 1;
+        }
+
+        long nextId() {
+            return currentId;
+        }
+
+        void restoreNextId(long nextId) {
+            currentId = Math.max(currentId, nextId);
+        }
+
+        private void append(User user) {
+            if (tail == entries.length) {
+                entries = java.util.Arrays.copyOf(entries, tail + (tail >> 1));
+            }
+            positions.put(user.getId(), tail);
+            entries[tail++] = user;
+            size++;
+            modCount++;
+        }
+
+        private void compact() {
+            int j = 0;
+            for (int i = 0; i < tail; i++) {
+                User u = entries[i];
+                if (u == null) continue;
+                if (i != j) {
+                    entries[j] = u;
+                    positions.put(u.getId(), j);
+                }
+                j++;
+            }
+            java.util.Arrays.fill(entries, j, tail, null);
+            tail = j;
+            modCount++;
+        }
+    }
+
+    // Генератор id с арендой блоков: потоки распределяются по слотам, каждый
+    // слот выдает id из своего блока через CAS, а общий счетчик трогается один
+    // раз на blockSize вызовов. Слотов фиксированное число, поэтому короткие и
+    // виртуальные потоки не плодят недоиспользованные блоки и состояние потоков.
+    static class IdBlockGenerator {
+        private static final int SPACING = 8;  // слоты на разных кэш-линиях
+
+        private final AtomicLong nextBlockStart;
+        private final long firstId;
+        private final int blockSize;
+        private final int slotMask;
+        // Следующий id слота; значение на границе блока - блок исчерпан
+        private final AtomicLongArray cursors;
+
+        IdBlockGenerator(long firstId, int blockSize, int slots) {
+            if (blockSize <= 0 || slots <= 0 || Integer.bitCount(slots) != 1) {
+                throw new IllegalArgumentException("Invalid id block parameters");
+            }
+            this.nextBlockStart = new AtomicLong(firstId);
+            this.firstId = firstId;
+            this.blockSize = blockSize;
+            this.slotMask = slots - 1;
+            this.cursors = new AtomicLongArray(slots * SPACING);
+            for (int i = 0; i < slots; i++) {
+                cursors.set(i * SPACING, firstId);
+            }
+        }
+
+        long next() {
+            long h = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+            int slot = ((int) (h >>> 32) & slotMask) * SPACING;
+            while (true) {
+                long cursor = cursors.get(slot);
+                if ((cursor - firstId) % blockSize != 0) {
+                    if (cursors.compareAndSet(slot, cursor, cursor + 1)) return cursor;
+                    continue;
+                }
+                // Первый id нового блока берем себе, остаток отдаем слоту;
+                // если слот уже пополнил другой поток, остаток пропадает
+                long start = nextBlockStart.getAndAdd(blockSize);
+                cursors.compareAndSet(slot, cursor, start + 1);
+                return start;
+            }
+        }
+    }
+
+    // Потокобезопасный репозиторий: записи разбиты на сегменты по id,
+    // каждый сегмент защищен своим StampedLock, чтение идет без блокировок
+    // (оптимистично) и повторяется под read-lock только при гонке с записью.
+    static class ConcurrentUserRepository implements UserRepository {
+        private final Stripe[] stripes;
+        private final int stripeMask;
+        private final int stripeShift;
+        private final IdBlockGenerator ids;
+
+        public ConcurrentUserRepository() {
+            this(Runtime.getRuntime().availableProcessors() * 4, 64);
+        }
+
+        public ConcurrentUserRepository(int concurrency, int idBlockSize) {
+            int count = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+            stripes = new Stripe[count];
+            for (int i = 0; i < count; i++) {
+                stripes[i] = new Stripe();
+            }
+            stripeMask = count - 1;
+            stripeShift = 64 - Integer.numberOfTrailingZeros(count);
+            ids = new IdBlockGenerator(1L, idBlockSize, count);
+        }
+
+        @Override
+        public User save(User user) {
+            if (user.getId() == null) {
+                // Новый пользователь
+                User newUser = new User(ids.next(), user.getName(), user.getEmail());
+                stripeFor(newUser.getId()).put(newUser, false);
+                return newUser;
+            }
+            // Обновление существующего: запись заменяется новым объектом,
+            // чтобы читатели без блокировок не видели полуобновленные поля
+            User updated = new User(user.getId(), user.getName(), user.getEmail());
+            if (!stripeFor(updated.getId()).put(updated, true)) {
+                throw new IllegalArgumentException("User not found");
+            }
+            return updated;
+        }
+
+        @Override
+        public Optional<User> findById(Long id) {
+            return id == null ? Optional.empty() : Optional.ofNullable(stripeFor(id).get(id));
+        }
+
+        @Override
+        public List<User> findAll() {
+            List<User> result = new ArrayList<>();
+            for (Stripe stripe : stripes) {
+                stripe.copyTo(result);
+            }
+            result.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+            return result;
+        }
+
+        @Override
+        public void deleteById(Long id) {
+            if (id != null) stripeFor(id).remove(id);
+        }
+
+        @Override
+        public boolean existsById(Long id) {
+            return id != null && stripeFor(id).get(id) != null;
+        }
+
+        // Оптимистичное обновление: mutator вычисляется без блокировки, а запись
+        // проходит, только если версия не изменилась с момента чтения; иначе повтор
+        @Override
+        public User update(Long id, UnaryOperator<User> mutator) {
+            Stripe stripe = stripeFor(id);
+            while (true) {
+                User current = stripe.get(id);
+                if (current == null) {
+                    throw new IllegalArgumentException("User not found");
+                }
+                User changed = mutator.apply(current);
+                User updated = new User(id, changed.getName(), changed.getEmail(), current.getVersion() + 1);
+                if (stripe.replace(current.getVersion(), updated)) {
+                    return updated;
+                }
+            }
+        }
+
+        // Сегмент выбирается по старшим битам хеша, а ячейка внутри сегмента -
+        // по младшим (LongIntHashMap.slot). Если брать одни и те же биты, у всех
+        // ключей сегмента они совпадут, и домашними будет лишь 1/stripes ячеек.
+        private Stripe stripeFor(long id) {
+            return stripes[(int) ((id * 0x9E3779B97F4A7C15L) >>> stripeShift) & stripeMask];
+        }
+
+        // Массивы ключей и значений одной длины заменяются вместе,
+        // поэтому оптимистичный читатель всегда видит согласованную пару
+        static final class Table {
+            final long[] keys;
+            final User[] values;
+            final int mask;
+
+            Table(int capacity) {
+                keys = new long[capacity];
+                values = new User[capacity];
+                mask = capacity - 1;
+            }
+        }
+
+        static final class Stripe {
+            private final StampedLock lock = new StampedLock();
+            private Table table = new Table(16);
+            private int size;
+
+            User get(long id) {
+                long stamp = lock.tryOptimisticRead();
+                User found = probe(table, id);
+                if (!lock.validate(stamp)) {
+                    stamp = lock.readLock();
+                    try {
+                        found = probe(table, id);
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
+                }
+                return found;
+            }
+
+            // Поиск ограничен длиной таблицы: при гонке с записью массив
+            // может быть в промежуточном состоянии, результат тогда отбросит validate
+            private static User probe(Table t, long id) {
+                for (int i = LongIntHashMap.slot(id, t.mask), n = 0; n <= t.mask; i = (i + 1) & t.mask, n++) {
+                    long k = t.keys[i];
+                    if (k == id) return t.values[i];
+                    if (k == 0) return null;
+                }
+                return null;
+            }
+
+            // Вставка (onlyIfPresent = false) или замена существующей записи
+            boolean put(User user, boolean onlyIfPresent) {
+                long id = user.getId();
+                long stamp = lock.writeLock();
+                try {
+                    Table t = table;
+                    int i = LongIntHashMap.slot(id, t.mask);
+                    for (; t.keys[i] != 0; i = (i + 1) & t.mask) {
+                        if (t.keys[i] == id) {
+                            user.version = t.values[i].version + 1;
+                            t.values[i] = user;
+                            return true;
+                        }
+                    }
+                    if (onlyIfPresent) return false;
+                    t.values[i] = user;
+                    t.keys[i] = id;
+                    if (++size > (t.mask + 1) * 3 / 4) {
+                        table = resize(t);
+                    }
+                    return true;
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+            // Замена записи, если ее версия все еще равна ожидаемой
+            boolean replace(long expectedVersion, User updated) {
+                long id = updated.getId();
+                long stamp = lock.writeLock();
+                try {
+                    Table t = table;
+                    for (int i = LongIntHashMap.slot(id, t.mask); t.keys[i] != 0; i = (i + 1) & t.mask) {
+                        if (t.keys[i] == id) {
+                            if (t.values[i].version != expectedVersion) return false;
+                            t.values[i] = updated;
+                            return true;
+                        }
+                    }
+                    return false;
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+            void remove(long id) {
+                long stamp = lock.writeLock();
+                try {
+                    Table t = table;
+                    for (int i = LongIntHashMap.slot(id, t.mask); t.keys[i] != 0; i = (i + 1) & t.mask) {
+                        if (t.keys[i] == id) {
+                            shiftBack(t, i);
+                            size--;
+                            return;
+                        }
+                    }
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+            void copyTo(List<User> out) {
+                long stamp = lock.readLock();
+                try {
+                    for (User user : table.values) {
+                        if (user != null) out.add(user);
+                    }
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+            private static void shiftBack(Table t, int hole) {
+                for (int i = (hole + 1) & t.mask; t.keys[i] != 0; i = (i + 1) & t.mask) {
+                    int home = LongIntHashMap.slot(t.keys[i], t.mask);
+                    if (((i - home) & t.mask) >= ((i - hole) & t.mask)) {
+                        t.keys[hole] = t.keys[i];
+                        t.values[hole] = t.values[i];
+                        hole = i;
+                    }
+                }
+                t.keys[hole] = 0;
+                t.values[hole] = null;
+            }
+
+            private static Table resize(Table old) {
+                Table t = new Table((old.mask + 1) << 1);
+                for (int j = 0; j <= old.mask; j++) {
+                    long k = old.keys[j];
+                    if (k == 0) continue;
+                    int i = LongIntHashMap.slot(k, t.mask);
+                    while (t.keys[i] != 0) i = (i + 1) & t.mask;
+                    t.keys[i] = k;
+                    t.values[i] = old.values[j];
+                }
+                return t;
+            }
+        }
+    }
+
+    // Долговечный репозиторий: каждое изменение попадает в журнал предзаписи (WAL)
+    // до возврата из save/deleteById, состояние периодически сбрасывается в снимок.
+    // При старте загружается последний снимок и проигрывается хвост журнала.
+    static class DurableUserRepository implements UserRepository, AutoCloseable {
+        private final Path dir;
+        private final HashIndexedUserRepository state = new HashIndexedUserRepository();
+        private final WriteAheadLog wal;
+        private final Object checkpointLock = new Object();
+        private final ScheduledExecutorService checkpoints;
+
+        public DurableUserRepository(Path dir, long checkpointPeriodSeconds) throws IOException {
+            this.dir = dir;
+            Files.createDirectories(dir);
+            long firstGeneration = UserSnapshot.load(dir.resolve(UserSnapshot.FILE), state);
+            long nextGeneration = WriteAheadLog.replay(dir, firstGeneration, state);
+            wal = new WriteAheadLog(dir, nextGeneration);
+            checkpoints = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "user-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpoints.scheduleWithFixedDelay(() -> {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    System.err.println("Checkpoint failed: " + e);
+                }
+            }, checkpointPeriodSeconds, checkpointPeriodSeconds, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public User save(User user) {
+            long seq;
+            User saved;
+            synchronized (this) {
+                saved = state.save(user);
+                seq = wal.append(WriteAheadLog.SAVE, saved.getId(), saved.getName(), saved.getEmail());
+            }
+            // Ждем fsync вне блокировки: пока пишется одна пачка, копится следующая
+            wal.awaitDurable(seq);
+            return saved;
+        }
+
+        @Override
+        public synchronized Optional<User> findById(Long id) {
+            return state.findById(id);
+        }
+
+        // Весь пакет уходит в журнал разом и ждет одного fsync
+        @Override
+        public List<User> saveAll(Collection<User> users) {
+            long seq = 0;
+            List<User> saved;
+            synchronized (this) {
+                saved = state.saveAll(users);
+                for (User user : saved) {
+                    seq = wal.append(WriteAheadLog.SAVE, user.getId(), user.getName(), user.getEmail());
+                }
+            }
+            wal.awaitDurable(seq);
+            return saved;
+        }
+
+        @Override
+        public synchronized List<User> findAllById(Collection<Long> ids) {
+            return state.findAllById(ids);
+        }
+
+        @Override
+        public synchronized List<User> findPage(Long afterId, int limit) {
+            return state.findPage(afterId, limit);
+        }
+
+        @Override
+        public User update(Long id, UnaryOperator<User> mutator) {
+            long seq;
+            User updated;
+            synchronized (this) {
+                updated = state.update(id, mutator);
+                seq = wal.append(WriteAheadLog.SAVE, updated.getId(), updated.getName(), updated.getEmail());
+            }
+            wal.awaitDurable(seq);
+            return updated;
+        }
+
+        @Override
+        public void deleteAllById(Collection<Long> ids) {
+            long seq = 0;
+            synchronized (this) {
+                for (Long id : ids) {
+                    if (!state.existsById(id)) continue;
+                    state.deleteById(id);
+                    seq = wal.append(WriteAheadLog.DELETE, id, null, null);
+                }
+            }
+            wal.awaitDurable(seq);
+        }
+
+        @Override
+        public synchronized List<User> findAll() {
+            return state.findAll();
+        }
+
+        @Override
+        public void deleteById(Long id) {
+            long seq;
+            synchronized (this) {
+                if (!state.existsById(id)) return;
+                state.deleteById(id);
+                seq = wal.append(WriteAheadLog.DELETE, id, null, null);
+            }
+            wal.awaitDurable(seq);
+        }
+
+        @Override
+        public synchronized boolean existsById(Long id) {
+            return state.existsById(id);
+        }
+
+        // Снимок всего состояния; журналы, вошедшие в снимок, удаляются
+        public void checkpoint() throws IOException {
+            synchronized (checkpointLock) {
+                List<User> users;
+                long nextId;
+                long generation;
+                synchronized (this) {
+                    // Новые изменения пойдут в следующий файл журнала. Записи,
+                    // изменившиеся после копирования списка, снимок может захватить
+                    // частично - это безопасно, т.к. журнал проигрывается поверх
+                    // снимка и каждая запись журнала - полное состояние пользователя
+                    generation = wal.rotate();
+                    users = state.findAll();
+                    nextId = state.nextId();
+                }
+                UserSnapshot.write(dir, users, nextId, generation);
+                WriteAheadLog.deleteBefore(dir, generation);
+            }
+        }
+
+        @Override
+        // Журнал закрывается только после того, как запущенный снимок закончит
+        // ротацию, иначе он откроет новый файл журнала, который никто не закроет
+        public void close() throws IOException {
+            checkpoints.shutdown();
+            try {
+                checkpoints.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (checkpointLock) {
+                wal.close();
+            }
+        }
+    }
+
+    // Снимок: заголовок, записи пользователей и CRC32 тела.
+    // Пишется и читается через отображение файла в память.
+    static final class UserSnapshot {
+        static final String FILE = "users.snapshot";
+        private static final int MAGIC = 0x55534E50; // "USNP"
+        private static final int HEADER = 4 + 8 + 8 + 4;
+
+        // Возвращает первое поколение журнала, не вошедшее в снимок
+        static long load(Path file, HashIndexedUserRepository into) throws IOException {
+            if (!Files.exists(file)) return 0;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                CRC32 crc = new CRC32();
+                crc.update(buf.slice(0, buf.limit() - 4));
+                if (buf.getInt(0) != MAGIC || buf.getInt(buf.limit() - 4) != (int) crc.getValue()) {
+                    throw new IOException("Corrupted snapshot: " + file);
+                }
+                buf.position(4);
+                long nextId = buf.getLong();
+                long walGeneration = buf.getLong();
+                int count = buf.getInt();
+                for (int i = 0; i < count; i++) {
+                    long id = buf.getLong();
+                    into.restore(id, WriteAheadLog.readString(buf), WriteAheadLog.readString(buf));
+                }
+                into.restoreNextId(nextId);
+                return walGeneration;
+            }
+        }
+
+        // Пишем во временный файл и атомарно подменяем им старый снимок
+        static void write(Path dir, List<User> users, long nextId, long walGeneration) throws IOException {
+            byte[][] strings = new byte[users.size() * 2][];
+            long size = HEADER + 4;
+            for (int i = 0; i < users.size(); i++) {
+                User user = users.get(i);
+                strings[2 * i] = WriteAheadLog.encode(user.getName());
+                strings[2 * i + 1] = WriteAheadLog.encode(user.getEmail());
+                size += 8 + WriteAheadLog.sizeOf(strings[2 * i]) + WriteAheadLog.sizeOf(strings[2 * i + 1]);
+            }
+            Path tmp = dir.resolve(FILE + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buf.putInt(MAGIC).putLong(nextId).putLong(walGeneration).putInt(users.size());
+                for (int i = 0; i < users.size(); i++) {
+                    buf.putLong(users.get(i).getId());
+                    WriteAheadLog.putString(buf, strings[2 * i]);
+                    WriteAheadLog.putString(buf, strings[2 * i + 1]);
+                }
+                CRC32 crc = new CRC32();
+                crc.update(buf.slice(0, buf.position()));
+                buf.putInt((int) crc.getValue());
+                buf.force();
+            }
+            Files.move(tmp, dir.resolve(FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // Журнал предзаписи с групповой фиксацией: фоновый поток забирает все
+    // накопившиеся записи, пишет их одним вызовом и делает один fsync на пачку.
+    // Формат записи: [длина тела][CRC32 тела][тип, id, имя, email].
+    static final class WriteAheadLog implements AutoCloseable {
+        static final byte SAVE = 1;
+        static final byte DELETE = 2;
+
+        private final Path dir;
+        private final Object monitor = new Object();
+        private FileChannel channel;
+        private long generation;
+        private List<ByteBuffer> pending = new ArrayList<>();
+        private long appendedSeq;
+        private long durableSeq;
+        private IOException failure;
+        private boolean closed;
+        private final Thread flusher;
+
+        WriteAheadLog(Path dir, long generation) throws IOException {
+            this.dir = dir;
+            this.generation = generation;
+            this.channel = open(dir, generation);
+            flusher = new Thread(this::flushLoop, "user-wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+
+        long append(byte type, long id, String name, String email) {
+            byte[] nameBytes = encode(name);
+            byte[] emailBytes = encode(email);
+            int bodyLength = 1 + 8 + sizeOf(nameBytes) + sizeOf(emailBytes);
+            ByteBuffer record = ByteBuffer.allocate(8 + bodyLength);
+            record.putInt(bodyLength).putInt(0).put(type).putLong(id);
+            putString(record, nameBytes);
+            putString(record, emailBytes);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 8, bodyLength);
+            record.putInt(4, (int) crc.getValue()).flip();
+            synchronized (monitor) {
+                if (closed) throw new IllegalStateException("Log is closed");
+                pending.add(record);
+                monitor.notifyAll();
+                return ++appendedSeq;
+            }
+        }
+
+        void awaitDurable(long seq) {
+            synchronized (monitor) {
+                while (durableSeq < seq) {
+                    if (failure != null) throw new UncheckedIOException(failure);
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for log sync", e);
+                    }
+                }
+            }
+        }
+
+        // Переключение на новый файл, когда все уже записанное зафиксировано
+        long rotate() throws IOException {
+            synchronized (monitor) {
+                awaitDurable(appendedSeq);
+                channel.close();
+                channel = open(dir, ++generation);
+                return generation;
+            }
+        }
+
+        private void flushLoop() {
+            while (true) {
+                List<ByteBuffer> batch;
+                long batchEnd;
+                FileChannel target;
+                synchronized (monitor) {
+                    while (pending.isEmpty() && !closed) {
+                        try {
+                            monitor.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (pending.isEmpty()) return;
+                    batch = pending;
+                    pending = new ArrayList<>();
+                    batchEnd = appendedSeq;
+                    target = channel;
+                }
+                try {
+                    ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                    long remaining = 0;
+                    for (ByteBuffer buffer : buffers) remaining += buffer.remaining();
+                    while (remaining > 0) {
+                        remaining -= target.write(buffers);
+                    }
+                    target.force(false);
+                    synchronized (monitor) {
+                        durableSeq = batchEnd;
+                        monitor.notifyAll();
+                    }
+                } catch (IOException e) {
+                    synchronized (monitor) {
+                        failure = e;
+                        monitor.notifyAll();
+                    }
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (monitor) {
+                closed = true;
+                monitor.notifyAll();
+            }
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+
+        // Проигрывает журналы начиная с поколения from; возвращает номер
+        // поколения для нового файла. Оборванная запись в конце файла отбрасывается.
+        static long replay(Path dir, long from, HashIndexedUserRepository into) throws IOException {
+            long next = from;
+            for (long generation : generations(dir)) {
+                if (generation < from) continue;
+                Path file = dir.resolve(fileName(generation));
+                long valid;
+                long size;
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                    size = ch.size();
+                    valid = replay(ch.map(FileChannel.MapMode.READ_ONLY, 0, size), into);
+                }
+                if (valid < size) {
+                    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        ch.truncate(valid);
+                    }
+                }
+                next = generation + 1;
+            }
+            return next;
+        }
+
+        private static long replay(ByteBuffer buf, HashIndexedUserRepository into) {
+            CRC32 crc = new CRC32();
+            while (buf.remaining() >= 8) {
+                int start = buf.position();
+                int bodyLength = buf.getInt();
+                int checksum = buf.getInt();
+                if (bodyLength <= 0 || bodyLength > buf.remaining()) return start;
+                crc.reset();
+                crc.update(buf.slice(buf.position(), bodyLength));
+                if ((int) crc.getValue() != checksum) return start;
+                byte type = buf.get();
+                long id = buf.getLong();
+                String name = readString(buf);
+                String email = readString(buf);
+                if (type == SAVE) {
+                    into.restore(id, name, email);
+                } else {
+                    into.deleteById(id);
+                }
+            }
+            return buf.position();
+        }
+
+        static void deleteBefore(Path dir, long generation) throws IOException {
+            for (long g : generations(dir)) {
+                if (g < generation) Files.deleteIfExists(dir.resolve(fileName(g)));
+            }
+        }
+
+        private static List<Long> generations(Path dir) throws IOException {
+            List<Long> result = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "wal-*.log")) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    result.add(Long.parseLong(name.substring(4, name.length() - 4)));
+                }
+            }
+            result.sort(null);
+            return result;
+        }
+
+        private static FileChannel open(Path dir, long generation) throws IOException {
+            return FileChannel.open(dir.resolve(fileName(generation)),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private static String fileName(long generation) {
+            return String.format("wal-%019d.log", generation);
+        }
+
+        // Строки: длина в байтах UTF-8 (-1 для null) и сами байты
+        static byte[] encode(String value) {
+            return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        static int sizeOf(byte[] bytes) {
+            return 4 + (bytes == null ? 0 : bytes.length);
+        }
+
+        static void putString(ByteBuffer buf, byte[] bytes) {
+            if (bytes == null) {
+                buf.putInt(-1);
+            } else {
+                buf.putInt(bytes.length).put(bytes);
+            }
+        }
+
+        static String readString(ByteBuffer buf) {
+            int length = buf.getInt();
+            if (length < 0) return null;
+            byte[] bytes = new byte[length];
+            buf.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Колоночное хранилище вне кучи: id лежат в примитивном столбце, имя и email -
+    // в прямых (off-heap) ByteBuffer-сегментах как UTF-8 с префиксом длины.
+    // Объекты User создаются только при возврате наружу, поэтому в куче на
+    // пользователя остаются лишь несколько примитивов, а сборщику мусора нечего обходить.
+    static class OffHeapUserRepository implements UserRepository {
+        private static final int NULL_LENGTH = -1;
+
+        private final int segmentSize;
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        private ByteBuffer current;
+        private long garbageBytes;  // байты устаревших записей (обновления и удаления)
+        private long usedBytes;
+
+        // Столбцы по строкам в порядке вставки; id = 0 означает удаленную строку
+        private long[] ids;
+        private long[] addresses;   // (номер сегмента << 32) | смещение
+        private long[] versions;
+        private int tail;
+        private int size;
+        private int modCount;
+        private final LongIntHashMap rows;
+        private long currentId = 1L;
+
+        public OffHeapUserRepository() {
+            this(1024, 1 << 20);
+        }
+
+        public OffHeapUserRepository(int expectedSize, int segmentSize) {
+            this.segmentSize = segmentSize;
+            ids = new long[Math.max(4, expectedSize)];
+            addresses = new long[ids.length];
+            versions = new long[ids.length];
+            rows = new LongIntHashMap(expectedSize);
+        }
+
+        @Override
+        public User save(User user) {
+            if (user.getId() == null) {
+                // Новый пользователь
+                long id = currentId++;
+                if (tail == ids.length) {
+                    ids = java.util.Arrays.copyOf(ids, tail + (tail >> 1));
+                    addresses = java.util.Arrays.copyOf(addresses, ids.length);
+                    versions = java.util.Arrays.copyOf(versions, ids.length);
+                }
+                ids[tail] = id;
+                versions[tail] = 0;
+                addresses[tail] = write(user.getName(), user.getEmail());
+                rows.put(id, tail++);
+                size++;
+                modCount++;
+                return new User(id, user.getName(), user.getEmail());
+            }
+            // Обновление существующего: новая запись дописывается, старая становится мусором
+            int row = rows.get(user.getId());
+            if (row == LongIntHashMap.MISSING) {
+                throw new IllegalArgumentException("User not found");
+            }
+            garbageBytes += recordSize(addresses[row]);
+            addresses[row] = write(user.getName(), user.getEmail());
+            long version = ++versions[row];
+            compactIfNeeded();
+            return new User(user.getId(), user.getName(), user.getEmail(), version);
+        }
+
+        @Override
+        public User update(Long id, UnaryOperator<User> mutator) {
+            int row = id == null ? LongIntHashMap.MISSING : rows.get(id);
+            if (row == LongIntHashMap.MISSING) {
+                throw new IllegalArgumentException("User not found");
+            }
+            User changed = mutator.apply(materialize(row));
+            garbageBytes += recordSize(addresses[row]);
+            addresses[row] = write(changed.getName(), changed.getEmail());
+            long version = ++versions[row];
+            compactIfNeeded();
+            return new User(id, changed.getName(), changed.getEmail(), version);
+        }
+
+        @Override
+        public Optional<User> findById(Long id) {
+            if (id == null) return Optional.empty();
+            int row = rows.get(id);
+            return row == LongIntHashMap.MISSING ? Optional.empty() : Optional.of(materialize(row));
+        }
+
+        @Override
+        public List<User> findAll() {
+            List<User> result = new ArrayList<>(size);
+            for (int row = 0; row < tail; row++) {
+                if (ids[row] != 0) result.add(materialize(row));
+            }
+            return result;
+        }
+
+        @Override
+        public void deleteById(Long id) {
+            if (id == null) return;
+            int row = rows.remove(id);
+            if (row == LongIntHashMap.MISSING) return;
+            garbageBytes += recordSize(addresses[row]);
+            ids[row] = 0;
+            size--;
+            modCount++;
+            compactIfNeeded();
+        }
+
+        @Override
+        public boolean existsById(Long id) {
+            return id != null && rows.get(id) != LongIntHashMap.MISSING;
+        }
+
+        @Override
+        public List<User> saveAll(Collection<User> batch) {
+            int added = 0;
+            for (User user : batch) {
+                if (user.getId() == null) {
+                    added++;
+                } else if (rows.get(user.getId()) == LongIntHashMap.MISSING) {
+                    throw new IllegalArgumentException("User not found");
+                }
+            }
+            if (tail + added > ids.length) {
+                ids = java.util.Arrays.copyOf(ids, tail + added);
+                addresses = java.util.Arrays.copyOf(addresses, tail + added);
+                versions = java.util.Arrays.copyOf(versions, tail + added);
+            }
+            rows.ensureCapacity(size + added);
+            List<User> result = new ArrayList<>(batch.size());
+            for (User user : batch) {
+                result.add(save(user));
+            }
+            return result;
+        }
+
+        // Объекты User создаются по мере продвижения потока
+        @Override
+        public Stream<User> stream() {
+            return StreamSupport.stream(
+                    new RowSpliterator(row -> ids[row] == 0 ? null : materialize(row), () -> modCount, 0, tail), false);
+        }
+
+        @Override
+        public List<User> findPage(Long afterId, int limit) {
+            int lo = 0;
+            int hi = tail;
+            while (afterId != null && lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int m = mid;
+                while (m < hi && ids[m] == 0) m++;
+                if (m == hi) {
+                    hi = mid;
+                } else if (ids[m] <= afterId) {
+                    lo = m + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            List<User> page = new ArrayList<>(Math.min(limit, size));
+            for (int row = lo; row < tail && page.size() < limit; row++) {
+                if (ids[row] != 0) page.add(materialize(row));
+            }
+            return page;
+        }
+
+        // Объем памяти вне кучи, занятый сегментами
+        public long offHeapBytes() {
+            long total = 0;
+            for (ByteBuffer segment : segments) total += segment.capacity();
+            return total;
+        }
+
+        private User materialize(int row) {
+            long address = addresses[row];
+            ByteBuffer segment = segments.get((int) (address >>> 32));
+            int offset = (int) address;
+            int nameLength = segment.getInt(offset);
+            String name = read(segment, offset + 4, nameLength);
+            int emailOffset = offset + 4 + Math.max(0, nameLength);
+            String email = read(segment, emailOffset + 4, segment.getInt(emailOffset));
+            return new User(ids[row], name, email, versions[row]);
+        }
+
+        private static String read(ByteBuffer segment, int offset, int length) {
+            if (length == NULL_LENGTH) return null;
+            byte[] bytes = new byte[length];
+            segment.get(offset, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long write(String name, String email) {
+            byte[] nameBytes = WriteAheadLog.encode(name);
+            byte[] emailBytes = WriteAheadLog.encode(email);
+            int length = WriteAheadLog.sizeOf(nameBytes) + WriteAheadLog.sizeOf(emailBytes);
+            if (current == null || current.remaining() < length) {
+                current = ByteBuffer.allocateDirect(Math.max(segmentSize, length));
+                segments.add(current);
+            }
+            long address = ((long) (segments.size() - 1) << 32) | current.position();
+            WriteAheadLog.putString(current, nameBytes);
+            WriteAheadLog.putString(current, emailBytes);
+            usedBytes += length;
+            return address;
+        }
+
+        private int recordSize(long address) {
+            ByteBuffer segment = segments.get((int) (address >>> 32));
+            int offset = (int) address;
+            int nameLength = Math.max(0, segment.getInt(offset));
+            int emailLength = Math.max(0, segment.getInt(offset + 4 + nameLength));
+            return 8 + nameLength + emailLength;
+        }
+
+        // Когда мусора больше половины, переписываем живые строки в новые сегменты
+        // и уплотняем столбцы, сохраняя порядок вставки
+        private void compactIfNeeded() {
+            if (garbageBytes <= segmentSize || garbageBytes * 2 < usedBytes) return;
+            List<ByteBuffer> oldSegments = new ArrayList<>(segments);
+            segments.clear();
+            current = null;
+            usedBytes = 0;
+            garbageBytes = 0;
+            int j = 0;
+            for (int row = 0; row < tail; row++) {
+                if (ids[row] == 0) continue;
+                long address = addresses[row];
+                ByteBuffer segment = oldSegments.get((int) (address >>> 32));
+                int offset = (int) address;
+                int nameLength = segment.getInt(offset);
+                String name = read(segment, offset + 4, nameLength);
+                int emailOffset = offset + 4 + Math.max(0, nameLength);
+                String email = read(segment, emailOffset + 4, segment.getInt(emailOffset));
+                ids[j] = ids[row];
+                versions[j] = versions[row];
+                addresses[j] = write(name, email);
+                if (row != j) rows.put(ids[j], j);
+                j++;
+            }
+            java.util.Arrays.fill(ids, j, tail, 0L);
+            tail = j;
+            modCount++;
+        }
+    }
+
+    // Кэширующий декоратор для медленного хранилища: ограниченный LRU-кэш
+    // найденных пользователей, отрицательный кэш отсутствующих id, сквозная
+    // запись при save/deleteById и счетчики попаданий, промахов и вытеснений.
+    static class CachingUserRepository implements UserRepository {
+        private final UserRepository delegate;
+        private final Map<Long, User> cache;
+        private final Map<Long, Boolean> missing;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        public CachingUserRepository(UserRepository delegate, int maxSize, int maxMissing) {
+            this.delegate = delegate;
+            // accessOrder = true: итерация от давно не использованных к свежим
+            this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, User> eldest) {
+                    if (size() > maxSize) {
+                        evictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            this.missing = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                    return size() > maxMissing;
+                }
+            };
+        }
+
+        @Override
+        public synchronized User save(User user) {
+            User saved = delegate.save(user);
+            remember(saved);
+            return saved;
+        }
+
+        @Override
+        public synchronized Optional<User> findById(Long id) {
+            if (id == null) return Optional.empty();
+            User cached = cache.get(id);
+            if (cached != null) {
+                hits++;
+                return Optional.of(cached);
+            }
+            if (missing.get(id) != null) {
+                hits++;
+                return Optional.empty();
+            }
+            misses++;
+            Optional<User> loaded = delegate.findById(id);
+            if (loaded.isPresent()) {
+                cache.put(id, loaded.get());
+            } else {
+                missing.put(id, Boolean.TRUE);
+            }
+            return loaded;
+        }
+
+        @Override
+        public List<User> findAll() {
+            return delegate.findAll();
+        }
+
+        @Override
+        public synchronized void deleteById(Long id) {
+            delegate.deleteById(id);
+            forget(id);
+        }
+
+        @Override
+        public synchronized boolean existsById(Long id) {
+            return findById(id).isPresent();
+        }
+
+        @Override
+        public synchronized List<User> saveAll(Collection<User> users) {
+            List<User> saved = delegate.saveAll(users);
+            for (User user : saved) {
+                remember(user);
+            }
+            return saved;
+        }
+
+        // Из хранилища одним пакетом догружаются только id, которых нет в кэше
+        @Override
+        public synchronized List<User> findAllById(Collection<Long> ids) {
+            // Попадания сразу копируются в локальную карту: загрузка остальных
+            // id может вытеснить их из кэша до сборки результата
+            Map<Long, User> found = new HashMap<>();
+            List<Long> toLoad = new ArrayList<>();
+            for (Long id : ids) {
+                if (id == null) continue;
+                User cached = cache.get(id);
+                if (cached != null) {
+                    hits++;
+                    found.put(id, cached);
+                } else if (missing.containsKey(id)) {
+                    hits++;
+                } else {
+                    misses++;
+                    toLoad.add(id);
+                }
+            }
+            if (!toLoad.isEmpty()) {
+                for (User user : delegate.findAllById(toLoad)) {
+                    found.put(user.getId(), user);
+                    cache.put(user.getId(), user);
+                }
+                for (Long id : toLoad) {
+                    if (!found.containsKey(id)) missing.put(id, Boolean.TRUE);
+                }
+            }
+            List<User> result = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                if (id == null) continue;
+                User user = found.get(id);
+                if (user != null) result.add(user);
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized void deleteAllById(Collection<Long> ids) {
+            delegate.deleteAllById(ids);
+            for (Long id : ids) {
+                forget(id);
+            }
+        }
+
+        @Override
+        public synchronized User update(Long id, UnaryOperator<User> mutator) {
+            User updated = delegate.update(id, mutator);
+            remember(updated);
+            return updated;
+        }
+
+        @Override
+        public Stream<User> stream() {
+            return delegate.stream();
+        }
+
+        @Override
+        public List<User> findPage(Long afterId, int limit) {
+            return delegate.findPage(afterId, limit);
+        }
+
+        @Override
+        public Optional<User> findByEmail(String email) {
+            return delegate.findByEmail(email);
+        }
+
+        @Override
+        public List<User> findByNamePrefix(String prefix) {
+            return delegate.findByNamePrefix(prefix);
+        }
+
+        public synchronized String stats() {
+            return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + cache.size();
+        }
+
+        private void remember(User user) {
+            missing.remove(user.getId());
+            cache.put(user.getId(), user);
+        }
+
+        private void forget(Long id) {
+            if (id == null) return;
+            cache.remove(id);
+            missing.put(id, Boolean.TRUE);
+        }
+    }
+
+    // Уникальный хеш-индекс: значение ключа -> id владельца
+    static class UniqueHashIndex {
+        private final String field;
+        private final Function<User, String> key;
+        private final Map<String, Long> ids = new HashMap<>();
+
+        UniqueHashIndex(String field, Function<User, String> key) {
+            this.field = field;
+            this.key = key;
+        }
+
+        // Проверка уникальности до изменения хранилища
+        void checkUnique(User user) {
+            String value = key.apply(user);
+            if (value == null) return;
+            Long owner = ids.get(value);
+            if (owner != null && !owner.equals(user.getId())) {
+                throw new IllegalArgumentException("Duplicate " + field + ": " + value);
+            }
+        }
+
+        Long find(String value) {
+            return ids.get(value);
+        }
+
+        void add(String value, Long id) {
+            if (value != null) ids.put(value, id);
+        }
+
+        void remove(String value, Long id) {
+            if (value != null) ids.remove(value, id);
+        }
+    }
+
+    // Упорядоченный индекс для поиска по префиксу: значение -> id в порядке вставки
+    static class SortedPrefixIndex {
+        private final NavigableMap<String, Set<Long>> ids = new TreeMap<>();
+
+        List<Long> findByPrefix(String prefix) {
+            String upper = successor(prefix);
+            NavigableMap<String, Set<Long>> range = upper == null
+                    ? ids.tailMap(prefix, true)
+                    : ids.subMap(prefix, true, upper, false);
+            List<Long> result = new ArrayList<>();
+            for (Set<Long> group : range.values()) {
+                result.addAll(group);
+            }
+            return result;
+        }
+
+        // Наименьшая строка больше всех строк с этим префиксом: последний символ,
+        // не равный Character.MAX_VALUE, увеличивается, хвост отбрасывается; null - границы нет
+        private static String successor(String prefix) {
+            for (int i = prefix.length() - 1; i >= 0; i--) {
+                char c = prefix.charAt(i);
+                if (c != Character.MAX_VALUE) {
+                    return prefix.substring(0, i) + (char) (c + 1);
+                }
+            }
+            return null;
+        }
+
+        void add(String value, Long id) {
+            if (value != null) ids.computeIfAbsent(value, v -> new LinkedHashSet<>()).add(id);
+        }
+
+        void remove(String value, Long id) {
+            if (value == null) return;
+            Set<Long> group = ids.get(value);
+            if (group != null && group.remove(id) && group.isEmpty()) {
+                ids.remove(value);
+            }
+        }
+    }
+
+    // Декоратор, поддерживающий вторичные индексы поверх любого репозитория:
+    // уникальный индекс по email и упорядоченный индекс по имени.
+    static class IndexedUserRepository implements UserRepository {
+        private final UserRepository delegate;
+        private final UniqueHashIndex emailIndex = new UniqueHashIndex("email", User::getEmail);
+        private final SortedPrefixIndex nameIndex = new SortedPrefixIndex();
+
+        public IndexedUserRepository(UserRepository delegate) {
+            this.delegate = delegate;
+            // Индексируем уже сохраненных пользователей
+            for (User user : delegate.findAll()) {
+                emailIndex.checkUnique(user);
+                index(user.getId(), user.getName(), user.getEmail());
+            }
+        }
+
+        @Override
+        public User save(User user) {
+            emailIndex.checkUnique(user);
+            if (user.getId() == null) {
+                User saved = delegate.save(user);
+                index(saved.getId(), saved.getName(), saved.getEmail());
+                return saved;
+            }
+            User existing = delegate.findById(user.getId())
+                    .orElseThrow(() -> new IllegalArgumentException("User not found"));
+            // Запоминаем старые ключи: делегат может изменить объект на месте
+            String oldName = existing.getName();
+            String oldEmail = existing.getEmail();
+            User saved = delegate.save(user);
+            unindex(saved.getId(), oldName, oldEmail);
+            index(saved.getId(), saved.getName(), saved.getEmail());
+            return saved;
+        }
+
+        @Override
+        public Optional<User> findById(Long id) {
+            return delegate.findById(id);
+        }
+
+        @Override
+        public List<User> findAll() {
+            return delegate.findAll();
+        }
+
+        @Override
+        public void deleteById(Long id) {
+            Optional<User> existing = delegate.findById(id);
+            if (existing.isEmpty()) return;
+            String oldName = existing.get().getName();
+            String oldEmail = existing.get().getEmail();
+            delegate.deleteById(id);
+            unindex(id, oldName, oldEmail);
+        }
+
+        @Override
+        public boolean existsById(Long id) {
+            return delegate.existsById(id);
+        }
+
+        // Уникальность проверяется и относительно индекса, и внутри самого пакета
+        @Override
+        public List<User> saveAll(Collection<User> users) {
+            Map<String, User> batchEmails = new HashMap<>();
+            List<User> existing = new ArrayList<>();
+            for (User user : users) {
+                emailIndex.checkUnique(user);
+                if (user.getEmail() != null) {
+                    User other = batchEmails.putIfAbsent(user.getEmail(), user);
+                    if (other != null && (user.getId() == null || !user.getId().equals(other.getId()))) {
+                        throw new IllegalArgumentException("Duplicate email: " + user.getEmail());
+                    }
+                }
+                if (user.getId() != null) {
+                    existing.add(delegate.findById(user.getId())
+                            .orElseThrow(() -> new IllegalArgumentException("User not found")));
+                }
+            }
+            // Старые ключи обновляемых записей снимаем до сохранения
+            String[] oldNames = new String[existing.size()];
+            String[] oldEmails = new String[existing.size()];
+            for (int i = 0; i < existing.size(); i++) {
+                oldNames[i] = existing.get(i).getName();
+                oldEmails[i] = existing.get(i).getEmail();
+            }
+            List<User> saved = delegate.saveAll(users);
+            int updated = 0;
+            for (User user : users) {
+                if (user.getId() != null) {
+                    unindex(user.getId(), oldNames[updated], oldEmails[updated]);
+                    updated++;
+                }
+            }
+            for (User user : saved) {
+                index(user.getId(), user.getName(), user.getEmail());
+            }
+            return saved;
+        }
+
+        @Override
+        public List<User> findAllById(Collection<Long> ids) {
+            return delegate.findAllById(ids);
+        }
+
+        @Override
+        public Stream<User> stream() {
+            return delegate.stream();
+        }
+
+        @Override
+        public List<User> findPage(Long afterId, int limit) {
+            return delegate.findPage(afterId, limit);
+        }
+
+        // Уникальность проверяется внутри mutator, до того как делегат применит
+        // изменение; старые ключи запоминаются из последнего вызова mutator
+        @Override
+        public User update(Long id, UnaryOperator<User> mutator) {
+            String[] oldKeys = new String[2];
+            User updated = delegate.update(id, current -> {
+                oldKeys[0] = current.getName();
+                oldKeys[1] = current.getEmail();
+                User changed = mutator.apply(current);
+                emailIndex.checkUnique(new User(id, changed.getName(), changed.getEmail()));
+                return changed;
+            });
+            unindex(id, oldKeys[0], oldKeys[1]);
+            index(id, updated.getName(), updated.getEmail());
+            return updated;
+        }
+
+        @Override
+        public void deleteAllById(Collection<Long> ids) {
+            List<User> existing = delegate.findAllById(ids);
+            String[] oldNames = new String[existing.size()];
+            String[] oldEmails = new String[existing.size()];
+            for (int i = 0; i < existing.size(); i++) {
+                oldNames[i] = existing.get(i).getName();
+                oldEmails[i] = existing.get(i).getEmail();
+            }
+            delegate.deleteAllById(ids);
+            for (int i = 0; i < existing.size(); i++) {
+                unindex(existing.get(i).getId(), oldNames[i], oldEmails[i]);
+            }
+        }
+
+        @Override
+        public Optional<User> findByEmail(String email) {
+            Long id = emailIndex.find(email);
+            return id == null ? Optional.empty() : delegate.findById(id);
+        }
+
+        @Override
+        public List<User> findByNamePrefix(String prefix) {
+            List<User> result = new ArrayList<>();
+            for (Long id : nameIndex.findByPrefix(prefix)) {
+                delegate.findById(id).ifPresent(result::add);
+            }
+            return result;
+        }
+
+        private void index(Long id, String name, String email) {
+            emailIndex.add(email, id);
+            nameIndex.add(name, id);
+        }
+
+        private void unindex(Long id, String name, String email) {
+            emailIndex.remove(email, id);
+            nameIndex.remove(name, id);
+        }
+    }
+
+    // Сервисный слой (бизнес-логика)
+    static class UserService {
+        private final UserRepository userRepository;
+
+        public UserService(UserRepository userRepository) {
+            this.userRepository = userRepository;
+        }
+
+        public User registerUser(String name, String email) {
+            User newUser = new User(null, name, email);
+            return userRepository.save(newUser);
+        }
+
+        public User updateUserEmail(Long userId, String newEmail) {
+            return userRepository.update(userId, user -> new User(user.getId(), user.getName(), newEmail));
+        }
+
+        public User renameUser(Long userId, String newName) {
+            return userRepository.update(userId, user -> new User(user.getId(), newName, user.getEmail()));
+        }
+
+        public Optional<User> findUserByEmail(String email) {
+            return userRepository.findByEmail(email);
+        }
+
+        public List<User> getAllUsers() {
+            return userRepository.findAll();
+        }
+
+        public Stream<User> streamAllUsers() {
+            return userRepository.stream();
+        }
+
+        public List<User> getUsersPage(Long afterId, int limit) {
+            return userRepository.findPage(afterId, limit);
+        }
+    }
+
+    public static void main(String[] args) {
+        // Создаем репозиторий
+        UserRepository userRepository = new InMemoryUserRepository();
+        
+        // Создаем сервис, инжектируя репозиторий
+        UserService userService = new UserService(userRepository);
+
+        // Регистрируем пользователей
+        User user1 = userService.registerUser("Иван Иванов", "ivan@example.com");
+        User user2 = userService.registerUser("Петр Петров", "petr@example.com");
+
+        System.out.println("Зарегистрированные пользователи:");
+        userService.getAllUsers().forEach(System.out::println);
+
+        // Обновляем email пользователя
+        User updatedUser = userService.updateUserEmail(user1.getId(), "ivan.new@example.com");
+        System.out.println("\nПосле обновления email:");
+        System.out.println(updatedUser);
+
+        // Получаем всех пользователей
+        System.out.println("\nТекущий список пользователей:");
+        userService.getAllUsers().forEach(System.out::println);
+
+        // Тот же сервис поверх репозитория с хеш-индексом по id
+        UserService hashedService = new UserService(new HashIndexedUserRepository());
+        hashedService.registerUser("Анна Смирнова", "anna@example.com");
+        User sergey = hashedService.registerUser("Сергей Кузнецов", "sergey@example.com");
+        hashedService.updateUserEmail(sergey.getId(), "sergey.new@example.com");
+        System.out.println("\nХеш-индексированный репозиторий:");
+        hashedService.getAllUsers().forEach(System.out::println);
+
+        // Вторичные индексы: поиск по email и по префиксу имени
+        UserRepository indexedRepository = new IndexedUserRepository(new HashIndexedUserRepository());
+        UserService indexedService = new UserService(indexedRepository);
+        indexedService.registerUser("Мария Соколова", "maria@example.com");
+        indexedService.registerUser("Марк Орлов", "mark@example.com");
+        indexedService.registerUser("Ольга Новикова", "olga@example.com");
+        System.out.println("\nПоиск по email: " + indexedService.findUserByEmail("mark@example.com").orElse(null));
+        System.out.println("Имена на 'Мар': " + indexedRepository.findByNamePrefix("Мар"));
+        try {
+            indexedService.registerUser("Двойник", "olga@example.com");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ошибка: " + e.getMessage());
+        }
+
+        // Параллельная регистрация в потокобезопасном репозитории
+        UserService concurrentService = new UserService(new ConcurrentUserRepository());
+        Thread[] workers = new Thread[4];
+        for (int t = 0; t < workers.length; t++) {
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    concurrentService.registerUser("user-" + worker + "-" + i, worker + "-" + i + "@example.com");
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("\nЗарегистрировано параллельно: " + concurrentService.getAllUsers().size());
+
+        // Атомарные обновления одной записи из нескольких потоков
+        User shared = concurrentService.registerUser("Общий", "shared@example.com");
+        Thread[] renamers = new Thread[4];
+        for (int t = 0; t < renamers.length; t++) {
+            int worker = t;
+            renamers[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    concurrentService.renameUser(shared.getId(), "Общий " + worker + "-" + i);
+                }
+            });
+            renamers[t].start();
+        }
+        for (Thread renamer : renamers) {
+            try {
+                renamer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("Версия после 400 обновлений: "
+                + concurrentService.updateUserEmail(shared.getId(), "shared.new@example.com").getVersion());
+
+        // Пакетный импорт: одна проверка и одно расширение хранилища на весь пакет
+        UserRepository importRepository = new HashIndexedUserRepository();
+        List<User> imported = importRepository.saveAll(List.of(
+                new User(null, "Татьяна Федорова", "tatiana@example.com"),
+                new User(null, "Николай Егоров", "nikolay@example.com"),
+                new User(null, "Светлана Павлова", "svetlana@example.com")));
+        importRepository.deleteAllById(List.of(imported.get(1).getId()));
+        System.out.println("\nПосле пакетного импорта и удаления:");
+        importRepository.findAllById(List.of(3L, 2L, 1L)).forEach(System.out::println);
+
+        // Постраничный обход по ключу: курсор - id последнего пользователя страницы
+        UserService pagedService = new UserService(new HashIndexedUserRepository());
+        for (int i = 1; i <= 5; i++) {
+            pagedService.registerUser("Пользователь " + i, "user" + i + "@example.com");
+        }
+        System.out.println("\nСтраницы по 2 пользователя:");
+        Long cursor = null;
+        List<User> page;
+        while (!(page = pagedService.getUsersPage(cursor, 2)).isEmpty()) {
+            System.out.println(page);
+            cursor = page.get(page.size() - 1).getId();
+        }
+        System.out.println("Email через поток: " + pagedService.streamAllUsers()
+                .map(User::getEmail)
+                .collect(Collectors.joining(", ")));
+
+        // Кэш перед хранилищем: повторные чтения не доходят до делегата
+        CachingUserRepository cachedRepository = new CachingUserRepository(new HashIndexedUserRepository(), 2, 100);
+        UserService cachedService = new UserService(cachedRepository);
+        User roman = cachedService.registerUser("Роман Васильев", "roman@example.com");
+        cachedService.registerUser("Юлия Зайцева", "julia@example.com");
+        cachedService.registerUser("Павел Семенов", "pavel@example.com");
+        cachedRepository.findById(roman.getId());
+        cachedRepository.findById(roman.getId());
+        cachedRepository.existsById(42L);
+        cachedRepository.existsById(42L);
+        System.out.println("\nСтатистика кэша: " + cachedRepository.stats());
+
+        // Хранилище вне кучи: в куче только примитивные столбцы
+        UserRepository offHeapRepository = new OffHeapUserRepository();
+        UserService offHeapService = new UserService(offHeapRepository);
+        User irina = offHeapService.registerUser("Ирина Лебедева", "irina@example.com");
+        offHeapService.registerUser("Алексей Морозов", "alexey@example.com");
+        offHeapService.updateUserEmail(irina.getId(), "irina.new@example.com");
+        System.out.println("\nХранилище вне кучи:");
+        offHeapService.getAllUsers().forEach(System.out::println);
+
+        // Долговечный репозиторий: данные переживают перезапуск
+        try {
+            Path dataDir = Files.createTempDirectory("users");
+            try (DurableUserRepository durable = new DurableUserRepository(dataDir, 60)) {
+                UserService durableService = new UserService(durable);
+                durableService.registerUser("Елена Волкова", "elena@example.com");
+                User dmitry = durableService.registerUser("Дмитрий Попов", "dmitry@example.com");
+                durable.checkpoint();
+                durableService.updateUserEmail(dmitry.getId(), "dmitry.new@example.com");
+            }
+            try (DurableUserRepository reopened = new DurableUserRepository(dataDir, 60)) {
+                System.out.println("\nВосстановлено после перезапуска:");
+                reopened.findAll().forEach(System.out::println);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
\ No newline at end of file